@@ -0,0 +1,32 @@
+package be.twofold.tinynes;
+
+import org.openjdk.jmh.profile.*;
+import org.openjdk.jmh.runner.*;
+import org.openjdk.jmh.runner.options.*;
+
+import java.io.*;
+
+/**
+ * Runs all benchmarks with the GC profiler, so every result comes with its allocations per operation.
+ * Takes the usual JMH command line options, like a benchmark name pattern.
+ */
+public final class Benchmarks {
+    private Benchmarks() {
+    }
+
+    public static void main(String[] args) throws CommandLineOptionException, RunnerException {
+        Options options = new OptionsBuilder()
+            .parent(new CommandLineOptions(args))
+            .addProfiler(GCProfiler.class)
+            .build();
+        new Runner(options).run();
+    }
+
+    static Nes load(String name) {
+        try (InputStream in = Benchmarks.class.getResourceAsStream("/" + name)) {
+            return new Nes(new Cartridge(Rom.load(in)));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
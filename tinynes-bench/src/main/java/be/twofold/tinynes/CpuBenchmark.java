@@ -0,0 +1,61 @@
+package be.twofold.tinynes;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.*;
+
+/**
+ * Instruction throughput on nestest.nes, run from $C000 like {@code CpuTest}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CpuBenchmark {
+    // The number of instructions in nestest.log, after that it starts over
+    private static final int Instructions = 8991;
+
+    private Nes nes;
+    private int count;
+
+    @Setup(Level.Iteration)
+    public void setup() {
+        nes = Benchmarks.load("nestest.nes");
+        restart();
+    }
+
+    /**
+     * An instruction with the PPU in lockstep.
+     */
+    @Benchmark
+    public void step() {
+        nes.step();
+        next();
+    }
+
+    /**
+     * An instruction on its own, without the PPU.
+     */
+    @Benchmark
+    public long run() {
+        long cycles = nes.cpu().run(1);
+        next();
+        return cycles;
+    }
+
+    private void next() {
+        if (++count == Instructions) {
+            restart();
+        }
+    }
+
+    private void restart() {
+        Cpu cpu = nes.cpu();
+        cpu.setP(0x24);
+        cpu.s = 0xFD;
+        cpu.pc = 0xC000;
+        count = 0;
+    }
+}
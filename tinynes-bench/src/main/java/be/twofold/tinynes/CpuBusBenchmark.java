@@ -0,0 +1,71 @@
+package be.twofold.tinynes;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Read and write dispatch on the CPU bus, reported per access.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CpuBusBenchmark {
+    private static final int Accesses = 1024;
+
+    private final int[] ram = new int[Accesses];
+    private final int[] prg = new int[Accesses];
+    private final int[] mixed = new int[Accesses];
+    private CpuBus bus;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        bus = Benchmarks.load("nestest.nes").cpuBus();
+
+        // Addresses that are random, but the same every run
+        Random random = new Random(0);
+        for (int i = 0; i < Accesses; i++) {
+            ram[i] = random.nextInt(0x2000);
+            prg[i] = 0x8000 | random.nextInt(0x8000);
+            mixed[i] = random.nextBoolean() ? ram[i] : prg[i];
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(Accesses)
+    public int readRam() {
+        return read(ram);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(Accesses)
+    public int readPrg() {
+        return read(prg);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(Accesses)
+    public int readMixed() {
+        return read(mixed);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(Accesses)
+    public void writeRam() {
+        for (int i = 0; i < Accesses; i++) {
+            bus.write(ram[i], (byte) i);
+        }
+    }
+
+    private int read(int[] addresses) {
+        int sum = 0;
+        for (int address : addresses) {
+            sum += bus.read(address);
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,52 @@
+package be.twofold.tinynes;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.*;
+
+/**
+ * Whole frames on the bundled ROMs, in every execution mode.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class FrameBenchmark {
+    @Param({"nestest.nes", "instr_timing.nes", "cpu_timing_test.nes"})
+    public String rom;
+
+    @Param({"lockstep", "batch", "idle", "recompiler", "headless"})
+    public String mode;
+
+    private Nes nes;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        nes = Benchmarks.load(rom);
+        switch (mode) {
+            case "lockstep" -> {
+            }
+            case "batch" -> nes.setBatch(true);
+            case "idle" -> {
+                nes.setBatch(true);
+                nes.setIdleLoops(true);
+            }
+            case "recompiler" -> {
+                nes.setBatch(true);
+                nes.setRecompiler(true);
+            }
+            case "headless" -> {
+                nes.setBatch(true);
+                nes.ppu().setDrawing(false);
+            }
+            default -> throw new IllegalArgumentException("Unknown mode: " + mode);
+        }
+    }
+
+    @Benchmark
+    public void runFrame() {
+        nes.runFrame();
+    }
+}
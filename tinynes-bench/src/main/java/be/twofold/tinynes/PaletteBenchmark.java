@@ -0,0 +1,59 @@
+package be.twofold.tinynes;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.*;
+import java.util.concurrent.*;
+
+/**
+ * Turning a frame into ARGB, the way the UI used to after every frame, reported per pixel.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PaletteBenchmark {
+    private static final int Pixels = 256 * 240;
+
+    private final byte[] frame = new byte[Pixels];
+    private final int[] argb = new int[Pixels];
+    private final IntBuffer direct = ByteBuffer.allocateDirect(Pixels * 4).order(ByteOrder.nativeOrder()).asIntBuffer();
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Nes nes = Benchmarks.load("nestest.nes");
+        for (int i = 0; i < 60; i++) {
+            nes.runFrame();
+        }
+        nes.ppu().draw(frame);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(Pixels)
+    public int[] convert() {
+        for (int i = 0; i < Pixels; i++) {
+            argb[i] = Palette.Palette[frame[i]];
+        }
+        return argb;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(Pixels)
+    public int[] convertEmphasis() {
+        for (int i = 0; i < Pixels; i++) {
+            argb[i] = Palette.Argb[0x40 | frame[i] & 0x3F];
+        }
+        return argb;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(Pixels)
+    public IntBuffer convertDirect() {
+        for (int i = 0; i < Pixels; i++) {
+            direct.put(i, Palette.Argb[frame[i] & 0x3F]);
+        }
+        return direct;
+    }
+}
@@ -0,0 +1,48 @@
+package be.twofold.tinynes;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.*;
+
+/**
+ * Dot throughput of the PPU on its own, with the name tables and sprites nestest.nes set up.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PpuBenchmark {
+    @Param({"true", "false"})
+    public boolean drawing;
+
+    private Ppu ppu;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Nes nes = Benchmarks.load("nestest.nes");
+        for (int i = 0; i < 60; i++) {
+            nes.runFrame();
+        }
+        ppu = nes.ppu();
+        ppu.setDrawing(drawing);
+    }
+
+    /**
+     * A single dot.
+     */
+    @Benchmark
+    public void clock() {
+        ppu.clock();
+    }
+
+    /**
+     * A whole scanline at once, reported per dot.
+     */
+    @Benchmark
+    @OperationsPerInvocation(341)
+    public void clockLine() {
+        ppu.clockLine();
+    }
+}
@@ -0,0 +1,184 @@
+package be.twofold.tinynes;
+
+import java.nio.*;
+import java.util.zip.*;
+
+public final class Cartridge {
+
+    private final Mapper mapper;
+    private final byte[] prg;
+    private final byte[] chr;
+    private final byte[] prgRam;
+    private final byte[] chrRam;
+    private final MirroringMode mirroringMode;
+    private final int checksum;
+
+    // Pattern rows as interleaved pixels, indexed by CHR offset with the plane bit dropped
+    private final int[] patternRows;
+    private final int[] flippedRows;
+
+    public Cartridge(Rom rom) {
+        int prgBanks = rom.getPrg().length / 0x4000;
+        int chrBanks = rom.getChr().length / 0x2000;
+        this.mapper = createMapper(rom.getMapperId(), prgBanks, chrBanks);
+        this.prg = rom.getPrg();
+        this.chr = rom.getChr();
+        this.prgRam = createPrgRam(rom.getMapperId());
+        this.chrRam = chrBanks == 0 ? new byte[0x2000] : null;
+        this.mirroringMode = rom.getMirroringMode();
+        this.checksum = checksum(prg, chr);
+
+        byte[] patterns = chrRam != null ? chrRam : chr;
+        this.patternRows = new int[patterns.length / 2];
+        this.flippedRows = new int[patterns.length / 2];
+        for (int offset = 0; offset < patterns.length; offset += 16) {
+            for (int y = 0; y < 8; y++) {
+                updatePatternRow(patterns, offset + y);
+            }
+        }
+    }
+
+    private static Mapper createMapper(int mapperId, int prgBanks, int chrBanks) {
+        return switch (mapperId) {
+            case 0 -> new Mapper000(prgBanks, chrBanks);
+            case 1 -> new Mapper001(prgBanks, chrBanks);
+            default -> throw new IllegalArgumentException("Unknown mapper: " + mapperId);
+        };
+    }
+
+    public MirroringMode getMirroringMode() {
+        return mirroringMode;
+    }
+
+    private byte[] createPrgRam(int mapperId) {
+        return switch (mapperId) {
+            case 0 -> null;
+            case 1 -> new byte[0x2000];
+            default -> throw new IllegalArgumentException("Unknown mapper: " + mapperId);
+        };
+    }
+
+    byte[] prg() {
+        return prg;
+    }
+
+    byte[] prgRam() {
+        return prgRam;
+    }
+
+    /**
+     * A CRC-32 of PRG and CHR ROM, to tell games apart.
+     */
+    int checksum() {
+        return checksum;
+    }
+
+    private static int checksum(byte[] prg, byte[] chr) {
+        CRC32 crc = new CRC32();
+        crc.update(prg);
+        crc.update(chr);
+        return (int) crc.getValue();
+    }
+
+    int prgSize() {
+        return prg.length;
+    }
+
+    int prgGeneration() {
+        return mapper.prgGeneration();
+    }
+
+    int prgOffset(int address) {
+        assert address >= 0x8000 && address <= 0xFFFF;
+        return mapper.cpuRead(address);
+    }
+
+    public byte cpuRead(int address) {
+        if (prgRam != null && address >= 0x6000 && address <= 0x7FFF) {
+            return prgRam[address & 0x1FFF];
+        }
+        return prg[mapper.cpuRead(address)];
+    }
+
+    public void cpuWrite(int address, byte value) {
+        if (prgRam != null && address >= 0x6000 && address <= 0x7FFF) {
+            prgRam[address & 0x1FFF] = value;
+            return;
+        }
+        mapper.cpuWrite(address, value);
+    }
+
+    public byte ppuRead(int address) {
+        assert address >= 0x0000 && address <= 0x1FFF;
+
+        if (chrRam != null) {
+            return chrRam[address & 0x1FFF];
+        }
+        return chr[mapper.ppuRead(address)];
+    }
+
+    /**
+     * Reads both bitplanes of a pattern row at once.
+     *
+     * @param address The address of the row in the first plane
+     * @param flipped Whether to mirror the row horizontally
+     * @return The row as returned by {@link Util#interleave(int, int)}
+     */
+    int patternRow(int address, boolean flipped) {
+        assert address >= 0x0000 && address <= 0x1FFF && (address & 0x08) == 0;
+
+        int offset = chrRam != null ? address & 0x1FFF : mapper.ppuRead(address);
+        int index = (offset >>> 4) << 3 | (offset & 0x07);
+        return flipped ? flippedRows[index] : patternRows[index];
+    }
+
+    void save(ByteBuffer out) {
+        if (prgRam != null) {
+            out.put(prgRam);
+        }
+        if (chrRam != null) {
+            out.put(chrRam);
+        }
+        mapper.save(out);
+    }
+
+    void load(ByteBuffer in) {
+        if (prgRam != null) {
+            in.get(prgRam);
+        }
+        if (chrRam != null) {
+            // Only rows that changed need their cache entry updated
+            int base = in.position();
+            for (int offset = 0; offset < chrRam.length; offset++) {
+                byte value = in.get(base + offset);
+                if (chrRam[offset] != value) {
+                    chrRam[offset] = value;
+                    updatePatternRow(chrRam, offset);
+                }
+            }
+            in.position(base + chrRam.length);
+        }
+        mapper.load(in);
+    }
+
+    private void updatePatternRow(byte[] patterns, int offset) {
+        int base = offset & ~0x08;
+        int lsb = Byte.toUnsignedInt(patterns[base]);
+        int msb = Byte.toUnsignedInt(patterns[base + 8]);
+        int index = (base >>> 4) << 3 | (base & 0x07);
+        patternRows[index] = Util.interleave(lsb, msb);
+        flippedRows[index] = Util.interleaveFlipped(lsb, msb);
+    }
+
+    public void ppuWrite(int address, byte value) {
+        assert address >= 0x0000 && address <= 0x1FFF;
+
+        if (chrRam != null) {
+            chrRam[address & 0x1FFF] = value;
+            updatePatternRow(chrRam, address & 0x1FFF);
+            return;
+        }
+        mapper.ppuWrite(address, value);
+    }
+
+}
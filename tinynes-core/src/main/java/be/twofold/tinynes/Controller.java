@@ -1,5 +1,7 @@
 package be.twofold.tinynes;
 
+import java.nio.*;
+
 public final class Controller {
 
     private int state;
@@ -20,6 +22,17 @@ public final class Controller {
         }
     }
 
+    /**
+     * The buttons that are held, as a mask of {@link ButtonKey} codes.
+     */
+    public int getState() {
+        return state;
+    }
+
+    public void setState(int state) {
+        this.state = state & 0xFF;
+    }
+
     public void latch() {
         latch = state;
     }
@@ -30,4 +43,13 @@ public final class Controller {
         return output;
     }
 
+    void save(ByteBuffer out) {
+        out.put((byte) state).putShort((short) latch);
+    }
+
+    void load(ByteBuffer in) {
+        state = Byte.toUnsignedInt(in.get());
+        latch = Short.toUnsignedInt(in.getShort());
+    }
+
 }
@@ -1,26 +1,28 @@
 package be.twofold.tinynes;
 
+import java.lang.invoke.*;
+import java.nio.*;
 import java.util.*;
 
 public final class Cpu {
 
     private static final byte[] CyclesPerInstruction = {
-        7, 6, 0, 8, 3, 3, 5, 5, 3, 2, 2, 2, 4, 4, 6, 6,
-        2, 5, 0, 8, 4, 4, 6, 6, 2, 4, 2, 7, 4, 4, 7, 7,
-        6, 6, 0, 8, 3, 3, 5, 5, 4, 2, 2, 2, 4, 4, 6, 6,
-        2, 5, 0, 8, 4, 4, 6, 6, 2, 4, 2, 7, 4, 4, 7, 7,
-        6, 6, 0, 8, 3, 3, 5, 5, 3, 2, 2, 2, 3, 4, 6, 6,
-        2, 5, 0, 8, 4, 4, 6, 6, 2, 4, 2, 7, 4, 4, 7, 7,
-        6, 6, 0, 8, 3, 3, 5, 5, 4, 2, 2, 2, 5, 4, 6, 6,
-        2, 5, 0, 8, 4, 4, 6, 6, 2, 4, 2, 7, 4, 4, 7, 7,
+        7, 6, 2, 8, 3, 3, 5, 5, 3, 2, 2, 2, 4, 4, 6, 6,
+        2, 5, 2, 8, 4, 4, 6, 6, 2, 4, 2, 7, 4, 4, 7, 7,
+        6, 6, 2, 8, 3, 3, 5, 5, 4, 2, 2, 2, 4, 4, 6, 6,
+        2, 5, 2, 8, 4, 4, 6, 6, 2, 4, 2, 7, 4, 4, 7, 7,
+        6, 6, 2, 8, 3, 3, 5, 5, 3, 2, 2, 2, 3, 4, 6, 6,
+        2, 5, 2, 8, 4, 4, 6, 6, 2, 4, 2, 7, 4, 4, 7, 7,
+        6, 6, 2, 8, 3, 3, 5, 5, 4, 2, 2, 2, 5, 4, 6, 6,
+        2, 5, 2, 8, 4, 4, 6, 6, 2, 4, 2, 7, 4, 4, 7, 7,
         2, 6, 2, 6, 3, 3, 3, 3, 2, 2, 2, 2, 4, 4, 4, 4,
-        2, 6, 0, 6, 4, 4, 4, 4, 2, 5, 2, 5, 5, 5, 5, 5,
+        2, 6, 2, 6, 4, 4, 4, 4, 2, 5, 2, 5, 5, 5, 5, 5,
         2, 6, 2, 6, 3, 3, 3, 3, 2, 2, 2, 2, 4, 4, 4, 4,
-        2, 5, 0, 5, 4, 4, 4, 4, 2, 4, 2, 4, 4, 4, 4, 4,
+        2, 5, 2, 5, 4, 4, 4, 4, 2, 4, 2, 4, 4, 4, 4, 4,
         2, 6, 2, 8, 3, 3, 5, 5, 2, 2, 2, 2, 4, 4, 6, 6,
-        2, 5, 0, 8, 4, 4, 6, 6, 2, 4, 2, 7, 4, 4, 7, 7,
+        2, 5, 2, 8, 4, 4, 6, 6, 2, 4, 2, 7, 4, 4, 7, 7,
         2, 6, 2, 8, 3, 3, 5, 5, 2, 2, 2, 2, 4, 4, 6, 6,
-        2, 5, 0, 4, 4, 4, 6, 6, 2, 4, 2, 7, 4, 4, 7, 7,
+        2, 5, 2, 8, 4, 4, 6, 6, 2, 4, 2, 7, 4, 4, 7, 7,
     };
 
     private final Bus bus;
@@ -29,12 +31,16 @@ public final class Cpu {
     int x;  // X index register
     int y;  // Y index register
     int s;  // Stack pointer
-    int p;  // Status register
+    int p;  // Status register, except N and Z
+    int nz; // Result N and Z are derived from
     int pc; // Program counter
     int cycles; // Cycles since last instruction
     boolean enabled = true;
 
-    int totalCycles;
+    long totalCycles;
+
+    private Recompiler recompiler;
+    private boolean stopping;
 
     public Cpu(Bus bus) {
         this.bus = Objects.requireNonNull(bus);
@@ -55,13 +61,49 @@ public final class Cpu {
         totalCycles++;
     }
 
+    /**
+     * Executes whole instructions until at least {@code cycleBudget} cycles have been consumed.
+     *
+     * @return The number of cycles actually consumed
+     */
+    public long run(long cycleBudget) {
+        long consumed = 0;
+        stopping = false;
+        while (consumed < cycleBudget && !stopping) {
+            long remaining = cycleBudget - consumed;
+            if (recompiler != null && remaining >= Recompiler.MinBudget && cycles == 0 && enabled) {
+                Recompiler.Block block = recompiler.lookup(pc);
+                if (block != null) {
+                    consumed += block.run(this, (int) Math.min(remaining, Integer.MAX_VALUE));
+                    continue;
+                }
+            }
+            consumed += step();
+        }
+        return consumed;
+    }
+
+    private int step() {
+        if (!enabled) {
+            totalCycles++;
+            return 1;
+        }
+        if (cycles == 0) {
+            int opcode = read(pc++);
+            cycles = CyclesPerInstruction[opcode];
+            execute(opcode);
+        }
+        return retire();
+    }
+
     public void reset() {
         a = 0;
         x = 0;
         y = 0;
         s = 0xFD;
-        p = 0x04;
+        setP(0x04);
         pc = read16(0xFFFC);
+        enabled = true;
     }
 
     public void irq() {
@@ -72,7 +114,7 @@ public final class Cpu {
         push16(pc);
 
         setI(true);
-        push(p | 0x20);
+        push(getP() | 0x20);
 
         pc = read16(0xFFFE);
 
@@ -83,21 +125,56 @@ public final class Cpu {
         push16(pc);
 
         setI(true);
-        push(p | 0x20);
+        push(getP() | 0x20);
 
         pc = read16(0xFFFA);
 
         cycles = 8;
     }
 
+    /**
+     * Makes {@link #run(long)} return after the current instruction, regardless of the budget.
+     */
+    void stop() {
+        stopping = true;
+    }
+
+    void setRecompiler(Recompiler recompiler) {
+        this.recompiler = recompiler;
+    }
+
+    public int getPc() {
+        return pc;
+    }
+
+    /**
+     * The number of cycles run since power on.
+     */
+    public long getTotalCycles() {
+        return totalCycles;
+    }
+
     // region Flags
 
+    // N and Z are only computed when they are read, most results are overwritten before that.
+    // Z is set when the low byte of nz is zero, N when bit 7 or bit 8 is set. Bit 8 is only
+    // used when N is set on a zero result, like BIT does.
+
+    public int getP() {
+        return p | (getN() ? 0x80 : 0) | (getZ() ? 0x02 : 0);
+    }
+
+    public void setP(int value) {
+        p = value & 0x7D;
+        nz = nz(value & 0x02, value & 0x80);
+    }
+
     public boolean getC() {
         return (p & 0x01) != 0;
     }
 
     public boolean getZ() {
-        return (p & 0x02) != 0;
+        return (nz & 0xFF) == 0;
     }
 
     public boolean getI() {
@@ -117,7 +194,7 @@ public final class Cpu {
     }
 
     public boolean getN() {
-        return (p & 0x80) != 0;
+        return (nz & 0x180) != 0;
     }
 
     public void setC(boolean value) {
@@ -125,7 +202,7 @@ public final class Cpu {
     }
 
     public void setZ(boolean value) {
-        p = value ? p | 0x02 : p & 0xFD;
+        nz = nz(value ? 0x02 : 0, nz & 0x180);
     }
 
     public void setI(boolean value) {
@@ -141,7 +218,11 @@ public final class Cpu {
     }
 
     public void setN(boolean value) {
-        p = value ? p | 0x80 : p & 0x7F;
+        nz = nz(getZ() ? 0x02 : 0, value ? 0x80 : 0);
+    }
+
+    private static int nz(int z, int n) {
+        return (z != 0 ? 0x00 : 0x01) | (n != 0 ? 0x100 : 0x00);
     }
 
     // endregion
@@ -169,6 +250,26 @@ public final class Cpu {
 
     // endregion
 
+    // region Compiled Blocks
+
+    static MethodHandles.Lookup lookup() {
+        return MethodHandles.lookup();
+    }
+
+    private void begin(int pc, int opcode) {
+        this.pc = pc;
+        cycles = CyclesPerInstruction[opcode];
+    }
+
+    private int retire() {
+        int result = cycles;
+        cycles = 0;
+        totalCycles += result;
+        return result;
+    }
+
+    // endregion
+
     // region Decoder
 
     private void execute(int opcode) {
@@ -327,65 +428,78 @@ public final class Cpu {
             case 0xFE -> inc(abx_());
 
             // Illegal Opcodes
+            case 0x02, 0x12, 0x22, 0x32, 0x42, 0x52, 0x62, 0x72, 0x92, 0xB2, 0xD2, 0xF2 -> jam();
             case 0x03 -> slo(izx());
             case 0x04, 0x44, 0x64 -> zp0();
             case 0x07 -> slo(zp0());
+            case 0x0B, 0x2B -> anc(imm());
             case 0x0C -> abs();
             case 0x0F -> slo(abs());
-            case 0x13 -> slo(izy());
+            case 0x13 -> slo(izy_());
             case 0x14, 0x34, 0x54, 0x74, 0xD4, 0xF4 -> zpx();
             case 0x17 -> slo(zpx());
             case 0x1A, 0x3A, 0x5A, 0x7A, 0xDA, 0xFA -> nop();
-            case 0x1B -> slo(aby());
+            case 0x1B -> slo(aby_());
             case 0x1C, 0x3C, 0x5C, 0x7C, 0xDC, 0xFC -> abx();
-            case 0x1F -> slo(abx());
+            case 0x1F -> slo(abx_());
             case 0x23 -> rla(izx());
             case 0x27 -> rla(zp0());
             case 0x2F -> rla(abs());
-            case 0x33 -> rla(izy());
+            case 0x33 -> rla(izy_());
             case 0x37 -> rla(zpx());
-            case 0x3B -> rla(aby());
-            case 0x3F -> rla(abx());
+            case 0x3B -> rla(aby_());
+            case 0x3F -> rla(abx_());
             case 0x43 -> sre(izx());
             case 0x47 -> sre(zp0());
+            case 0x4B -> alr(imm());
             case 0x4F -> sre(abs());
-            case 0x53 -> sre(izy());
+            case 0x53 -> sre(izy_());
             case 0x57 -> sre(zpx());
-            case 0x5B -> sre(aby());
-            case 0x5F -> sre(abx());
+            case 0x5B -> sre(aby_());
+            case 0x5F -> sre(abx_());
             case 0x63 -> rra(izx());
             case 0x67 -> rra(zp0());
+            case 0x6B -> arr(imm());
             case 0x6F -> rra(abs());
-            case 0x73 -> rra(izy());
+            case 0x73 -> rra(izy_());
             case 0x77 -> rra(zpx());
-            case 0x7B -> rra(aby());
-            case 0x7F -> rra(abx());
-            case 0x80, 0x82, 0x89 -> imm();
+            case 0x7B -> rra(aby_());
+            case 0x7F -> rra(abx_());
+            case 0x80, 0x82, 0x89, 0xC2, 0xE2 -> imm();
             case 0x83 -> sax(izx());
             case 0x87 -> sax(zp0());
+            case 0x8B -> xaa(imm());
             case 0x8F -> sax(abs());
+            case 0x93 -> sha(izy_());
             case 0x97 -> sax(zpy());
+            case 0x9B -> tas(aby_());
+            case 0x9C -> shy(abx_());
+            case 0x9E -> shx(aby_());
+            case 0x9F -> sha(aby_());
             case 0xA3 -> lax(izx());
             case 0xA7 -> lax(zp0());
+            case 0xAB -> lxa(imm());
             case 0xAF -> lax(abs());
             case 0xB3 -> lax(izy());
             case 0xB7 -> lax(zpy());
+            case 0xBB -> las(aby());
             case 0xBF -> lax(aby());
             case 0xC3 -> dcp(izx());
             case 0xC7 -> dcp(zp0());
+            case 0xCB -> axs(imm());
             case 0xCF -> dcp(abs());
-            case 0xD3 -> dcp(izy());
+            case 0xD3 -> dcp(izy_());
             case 0xD7 -> dcp(zpx());
-            case 0xDB -> dcp(aby());
-            case 0xDF -> dcp(abx());
+            case 0xDB -> dcp(aby_());
+            case 0xDF -> dcp(abx_());
             case 0xE3 -> isc(izx());
             case 0xE7 -> isc(zp0());
             case 0xEB -> sbc(imm());
             case 0xEF -> isc(abs());
-            case 0xF3 -> isc(izy());
+            case 0xF3 -> isc(izy_());
             case 0xF7 -> isc(zpx());
-            case 0xFB -> isc(aby());
-            case 0xFF -> isc(abx());
+            case 0xFB -> isc(aby_());
+            case 0xFF -> isc(abx_());
 
             default ->
                 throw new IllegalArgumentException(String.format("inVALID opcode 0x%02x at 0x%04x", opcode, pc - 1));
@@ -396,6 +510,9 @@ public final class Cpu {
 
     // region Addressing Modes
 
+    // The indexed and indirect modes are split in fetching the operand
+    // and resolving it, so compiled blocks can skip the fetch.
+
     private int imm() {
         return pc++;
     }
@@ -405,11 +522,19 @@ public final class Cpu {
     }
 
     private int zpx() {
-        return (zp0() + x) & 0xFF;
+        return zpx(zp0());
+    }
+
+    private int zpx(int operand) {
+        return (operand + x) & 0xFF;
     }
 
     private int zpy() {
-        return (zp0() + y) & 0xFF;
+        return zpy(zp0());
+    }
+
+    private int zpy(int operand) {
+        return (operand + y) & 0xFF;
     }
 
     private int rel() {
@@ -424,40 +549,69 @@ public final class Cpu {
     }
 
     private int abx() {
-        return cross(abs(), x);
+        return abx(abs());
+    }
+
+    private int abx(int operand) {
+        return cross(operand, x);
     }
 
     private int abx_() {
-        return (abs() + x) & 0xFFFF;
+        return abx_(abs());
+    }
+
+    private int abx_(int operand) {
+        return (operand + x) & 0xFFFF;
     }
 
     private int aby() {
-        return cross(abs(), y);
+        return aby(abs());
+    }
+
+    private int aby(int operand) {
+        return cross(operand, y);
     }
 
     private int aby_() {
-        return (abs() + y) & 0xFFFF;
+        return aby_(abs());
+    }
+
+    private int aby_(int operand) {
+        return (operand + y) & 0xFFFF;
     }
 
     private int ind() {
-        int i = abs();
-        return read16(i, (i & 0xFF00) | ((i + 1) & 0xFF));
+        return ind(abs());
+    }
+
+    private int ind(int operand) {
+        return read16(operand, (operand & 0xFF00) | ((operand + 1) & 0xFF));
     }
 
     private int izx() {
-        int i = zpx();
+        return izx(zp0());
+    }
+
+    private int izx(int operand) {
+        int i = zpx(operand);
         return read16(i, (i + 1) & 0xFF);
     }
 
     private int izy() {
-        int i = zp0();
-        int base = read16(i, (i + 1) & 0xFF);
+        return izy(zp0());
+    }
+
+    private int izy(int operand) {
+        int base = read16(operand, (operand + 1) & 0xFF);
         return cross(base, y);
     }
 
     private int izy_() {
-        int i = zp0();
-        return read16(i, (i + 1) & 0xFF) + y;
+        return izy_(zp0());
+    }
+
+    private int izy_(int operand) {
+        return read16(operand, (operand + 1) & 0xFF) + y;
     }
 
     private int cross(int base, int offset) {
@@ -518,8 +672,7 @@ public final class Cpu {
 
     private void bit(int address) {
         int f = read(address);
-        setZ((a & f) == 0);
-        setN((f & 0x80) != 0);
+        nz = (a & f) | (f & 0x80) << 1;
         setV((f & 0x40) != 0);
     }
 
@@ -537,7 +690,7 @@ public final class Cpu {
 
     private void brk() {
         push16(++pc);
-        push(p | 0x30);
+        push(getP() | 0x30);
         pc = read16(0xFFFE);
     }
 
@@ -579,7 +732,7 @@ public final class Cpu {
 
     private void cmp0(int address, int reg) {
         int fetched = read(address);
-        int temp = reg - fetched;
+        int temp = (reg - fetched) & 0xFF;
         setC(reg >= fetched);
         setZN(temp);
     }
@@ -680,7 +833,7 @@ public final class Cpu {
     }
 
     private void php() {
-        push(p | 0x30);
+        push(getP() | 0x30);
     }
 
     private void pla() {
@@ -689,7 +842,7 @@ public final class Cpu {
     }
 
     private void plp() {
-        p = pop() & 0xCF;
+        setP(pop() & 0xCF);
     }
 
     private void rol(int address) {
@@ -723,7 +876,7 @@ public final class Cpu {
     }
 
     private void rti() {
-        p = pop() & 0xCF;
+        setP(pop() & 0xCF);
         pc = pop16();
     }
 
@@ -790,6 +943,32 @@ public final class Cpu {
 
     // Unofficial
 
+    private void alr(int address) {
+        a &= read(address);
+        a = lsr0(a);
+    }
+
+    private void anc(int address) {
+        and(address);
+        setC(getN());
+    }
+
+    private void arr(int address) {
+        a &= read(address);
+        a = (a >>> 1) | (getC() ? 0x80 : 0x00);
+        setZN(a);
+        setC((a & 0x40) != 0);
+        setV(((a ^ (a << 1)) & 0x40) != 0);
+    }
+
+    private void axs(int address) {
+        int fetched = read(address);
+        int temp = a & x;
+        setC(temp >= fetched);
+        x = (temp - fetched) & 0xFF;
+        setZN(x);
+    }
+
     private void dcp(int address) {
         dec(address);
         cmp(address);
@@ -800,11 +979,25 @@ public final class Cpu {
         sbc(address);
     }
 
+    private void jam() {
+        enabled = false;
+    }
+
+    private void las(int address) {
+        a = x = s = read(address) & s;
+        setZN(a);
+    }
+
     private void lax(int address) {
         a = x = read(address);
         setZN(a);
     }
 
+    private void lxa(int address) {
+        a = x = (a | 0xEE) & read(address);
+        setZN(a);
+    }
+
     private void rla(int address) {
         rol(address);
         and(address);
@@ -819,6 +1012,29 @@ public final class Cpu {
         write(address, a & x);
     }
 
+    private void sha(int address) {
+        sh0(address, y, a & x);
+    }
+
+    private void shx(int address) {
+        sh0(address, y, x);
+    }
+
+    private void shy(int address) {
+        sh0(address, x, y);
+    }
+
+    private void sh0(int address, int index, int value) {
+        // The value is ANDed with the high byte of the base address plus one,
+        // which also ends up as the high byte of the address when the page is crossed
+        int base = (address - index) & 0xFFFF;
+        value &= (base >>> 8) + 1;
+        if ((base & 0xFF00) != (address & 0xFF00)) {
+            address = (value << 8) | (address & 0xFF);
+        }
+        write(address & 0xFFFF, value);
+    }
+
     private void sre(int address) {
         lsr(address);
         eor(address);
@@ -829,17 +1045,26 @@ public final class Cpu {
         ora(address);
     }
 
+    private void tas(int address) {
+        s = a & x;
+        sh0(address, y, s);
+    }
+
+    private void xaa(int address) {
+        a = (a | 0xEE) & x & read(address);
+        setZN(a);
+    }
+
     // Helpers
 
     private void setZN(int value) {
-        setZ(value == 0);
-        setN((value & 0x80) != 0);
+        nz = value;
     }
 
     private void branch(boolean condition, int address) {
         if (condition) {
+            cycles += ((pc ^ address) & 0xFF00) != 0 ? 2 : 1;
             pc = address;
-            cycles++;
         }
     }
 
@@ -866,6 +1091,31 @@ public final class Cpu {
 
     // endregion
 
+    // region State
+
+    void save(ByteBuffer out) {
+        out.put((byte) a).put((byte) x).put((byte) y).put((byte) s).put((byte) p);
+        out.putInt(nz).putShort((short) pc);
+        out.putInt(cycles);
+        out.put((byte) (enabled ? 1 : 0));
+        out.putLong(totalCycles);
+    }
+
+    void load(ByteBuffer in) {
+        a = Byte.toUnsignedInt(in.get());
+        x = Byte.toUnsignedInt(in.get());
+        y = Byte.toUnsignedInt(in.get());
+        s = Byte.toUnsignedInt(in.get());
+        p = Byte.toUnsignedInt(in.get());
+        nz = in.getInt();
+        pc = Short.toUnsignedInt(in.getShort());
+        cycles = in.getInt();
+        enabled = in.get() != 0;
+        totalCycles = in.getLong();
+    }
+
+    // endregion
+
     @Override
     public String toString() {
         return "Cpu(" +
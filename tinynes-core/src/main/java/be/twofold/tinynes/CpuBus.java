@@ -0,0 +1,209 @@
+package be.twofold.tinynes;
+
+import java.nio.*;
+
+public final class CpuBus implements Bus {
+
+    private final byte[] ram = new byte[2 * 1024];
+    private final Cartridge cartridge;
+    private final Ppu ppu;
+    private final Apu apu;
+    private final Controller controller1 = new Controller();
+    private final Controller controller2 = new Controller();
+    final Dma dma;
+
+    // Memory map, one entry per 256 byte page. Pages without an array go through the handlers below.
+    private final byte[][] readPages = new byte[256][];
+    private final byte[][] writePages = new byte[256][];
+    private final int[] offsets = new int[256];
+    private int prgGeneration;
+    private Sync sync = Sync.None;
+
+    public CpuBus(Cartridge cartridge, Ppu ppu, Apu apu) {
+        this.cartridge = cartridge;
+        this.ppu = ppu;
+        this.apu = apu;
+        this.dma = new Dma(this);
+        mapRam();
+        mapPrg();
+    }
+
+    void setSync(Sync sync) {
+        this.sync = sync;
+    }
+
+    public Controller controller1() {
+        return controller1;
+    }
+
+    public Controller controller2() {
+        return controller2;
+    }
+
+    byte[] ram() {
+        return ram;
+    }
+
+    // region Memory Map
+
+    private void mapRam() {
+        for (int page = 0x00; page < 0x20; page++) {
+            map(page, ram, (page & 0x07) << 8, true);
+        }
+        byte[] prgRam = cartridge.prgRam();
+        if (prgRam != null) {
+            for (int page = 0x60; page < 0x80; page++) {
+                map(page, prgRam, (page & 0x1F) << 8, true);
+            }
+        }
+    }
+
+    private void mapPrg() {
+        prgGeneration = cartridge.prgGeneration();
+        byte[] prg = cartridge.prg();
+        for (int page = 0x80; page < 0x100; page++) {
+            map(page, prg, cartridge.prgOffset(page << 8), false);
+        }
+    }
+
+    private void map(int page, byte[] array, int offset, boolean writable) {
+        readPages[page] = array;
+        writePages[page] = writable ? array : null;
+        offsets[page] = offset;
+    }
+
+    // endregion
+
+    void save(ByteBuffer out) {
+        out.put(ram);
+        controller1.save(out);
+        controller2.save(out);
+        dma.save(out);
+    }
+
+    /**
+     * Loads RAM and the devices owned by the bus. The cartridge has to be loaded first, so PRG can be remapped.
+     */
+    void load(ByteBuffer in) {
+        in.get(ram);
+        controller1.load(in);
+        controller2.load(in);
+        dma.load(in);
+        mapPrg();
+    }
+
+    @Override
+    public byte read(int address) {
+        assert address >= 0x0000 && address <= 0xFFFF;
+
+        byte[] page = readPages[address >>> 8];
+        if (page != null) {
+            return page[offsets[address >>> 8] | (address & 0xFF)];
+        }
+        return readIo(address);
+    }
+
+    @Override
+    public void write(int address, byte value) {
+        assert address >= 0x0000 && address <= 0xFFFF;
+
+        byte[] page = writePages[address >>> 8];
+        if (page != null) {
+            page[offsets[address >>> 8] | (address & 0xFF)] = value;
+            return;
+        }
+        writeIo(address, value);
+    }
+
+    private byte readIo(int address) {
+        assert address >= 0x2000 : "RAM is mapped in the page table";
+
+        if (address <= 0x3FFF) {
+            sync.beforePpuAccess();
+            return ppu.cpuRead(address);
+        }
+
+        if (address <= 0x401F) {
+            if (address <= 0x4013 || address == 0x4015) {
+                return apu.read(address);
+            }
+            if (address == 0x4016) {
+                return (byte) controller1.strobe();
+            }
+            if (address == 0x4017) {
+                return (byte) controller2.strobe();
+            }
+            System.err.println("Read from IO: " + Util.hex4(address));
+            return 0;
+        }
+
+        if (address <= 0xFFFF) {
+            return cartridge.cpuRead(address);
+        }
+
+        throw new IllegalArgumentException("Illegal CPU read: $" + Integer.toHexString(address));
+    }
+
+    private void writeIo(int address, byte value) {
+        assert address >= 0x2000 : "RAM is mapped in the page table";
+
+        if (address <= 0x3FFF) {
+            sync.beforePpuAccess();
+            ppu.cpuWrite(address, value);
+            return;
+        }
+
+        if (address <= 0x401F) {
+            if (address <= 0x4013 || address == 0x4015 || address == 0x4017) {
+                apu.write(address, value);
+                return;
+            }
+            if (address == 0x4014) {
+                dma.start(value);
+                sync.dmaStarted();
+                return;
+            }
+            if (address == 0x4016) {
+                if ((value & 0x01) != 0) {
+                    controller1.latch();
+                    controller2.latch();
+                }
+                return;
+            }
+            System.err.println("Write to IO: " + Util.hex4(address) + " -- " + Util.hex2(value));
+            return;
+        }
+
+        if (address <= 0xFFFF) {
+            // Mappers can switch CHR banks
+            sync.beforePpuAccess();
+            cartridge.cpuWrite(address, value);
+            if (cartridge.prgGeneration() != prgGeneration) {
+                mapPrg();
+            }
+            return;
+        }
+
+        throw new IllegalArgumentException("Illegal CPU write: $" + Integer.toHexString(address));
+    }
+
+    /**
+     * Lets a PPU that runs behind the CPU catch up before the CPU does anything it could notice.
+     */
+    interface Sync {
+        Sync None = new Sync() {
+            @Override
+            public void beforePpuAccess() {
+            }
+
+            @Override
+            public void dmaStarted() {
+            }
+        };
+
+        void beforePpuAccess();
+
+        void dmaStarted();
+    }
+
+}
@@ -0,0 +1,94 @@
+package be.twofold.tinynes;
+
+import java.nio.*;
+
+final class Dma {
+    private final Bus bus;
+
+    private int page;
+    private int counter;
+    private byte data;
+    private boolean skip = true;
+    private boolean enabled = false;
+    private long cycle;
+
+    Dma(Bus bus) {
+        this.bus = bus;
+        reset();
+    }
+
+    boolean clock(long cycle) {
+        if (!enabled) {
+            return false;
+        }
+        this.cycle = cycle;
+        if (skip) {
+            if ((cycle & 0x01) == 1) {
+                skip = false;
+            }
+        } else {
+            if ((cycle & 0x01) == 0) {
+                data = bus.read(page | counter);
+            } else {
+                bus.write(0x2004, data);
+                if (counter++ == 0xFF) {
+                    enabled = false;
+                    skip = true;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Runs the remainder of a pending transfer, starting at the given cycle.
+     *
+     * @return The number of CPU cycles the transfer took
+     */
+    int run(long cycle) {
+        int count = 0;
+        while (clock(cycle + count * 3)) {
+            count++;
+        }
+        return count;
+    }
+
+    boolean active() {
+        return enabled;
+    }
+
+    /**
+     * The cycle of the transfer slot that is running.
+     */
+    long cycle() {
+        return cycle;
+    }
+
+    public void start(byte value) {
+        page = (value & 0xFF) << 8;
+        counter = 0;
+        enabled = true;
+    }
+
+    void save(ByteBuffer out) {
+        out.put((byte) (page >>> 8)).put((byte) counter).put(data);
+        out.put((byte) ((skip ? 1 : 0) | (enabled ? 2 : 0)));
+        out.putLong(cycle);
+    }
+
+    void load(ByteBuffer in) {
+        page = Byte.toUnsignedInt(in.get()) << 8;
+        counter = Byte.toUnsignedInt(in.get());
+        data = in.get();
+        int flags = in.get();
+        skip = (flags & 1) != 0;
+        enabled = (flags & 2) != 0;
+        cycle = in.getLong();
+    }
+
+    private void reset() {
+        page = 0;
+        counter = 0;
+        enabled = false;
+    }
+}
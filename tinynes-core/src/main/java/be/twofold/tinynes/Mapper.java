@@ -1,9 +1,12 @@
 package be.twofold.tinynes;
 
+import java.nio.*;
+
 public abstract class Mapper {
 
     final int prgBanks;
     final int chrBanks;
+    private int prgGeneration;
 
     Mapper(int prgBanks, int chrBanks) {
         this.prgBanks = prgBanks;
@@ -20,6 +23,26 @@ public abstract class Mapper {
 
     abstract void reset();
 
+    /**
+     * Changes every time the PRG banks mapped into $8000-$FFFF change, so caches can tell when to re-resolve addresses.
+     */
+    int prgGeneration() {
+        return prgGeneration;
+    }
+
+    void prgRemapped() {
+        prgGeneration++;
+    }
+
+    /**
+     * Saves the bank registers, if any. Mappers without registers have nothing to save.
+     */
+    void save(ByteBuffer out) {
+    }
+
+    void load(ByteBuffer in) {
+    }
+
     IllegalArgumentException illegalWrite(int address, byte value) {
         return new IllegalArgumentException("Invalid write: " + Util.hex4(address));
     }
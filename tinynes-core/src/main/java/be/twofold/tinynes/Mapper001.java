@@ -1,5 +1,7 @@
 package be.twofold.tinynes;
 
+import java.nio.*;
+
 public final class Mapper001 extends Mapper {
     private int loader;
     private int control;
@@ -59,6 +61,15 @@ public final class Mapper001 extends Mapper {
     void cpuWrite(int address, byte value) {
         assert address >= 0x8000 && address <= 0xFFFF;
 
+        int lo = cpuRead(0x8000);
+        int hi = cpuRead(0xC000);
+        writeRegister(address, value);
+        if (cpuRead(0x8000) != lo || cpuRead(0xC000) != hi) {
+            prgRemapped();
+        }
+    }
+
+    private void writeRegister(int address, byte value) {
         // Reset shift register
         if ((value & 0x80) != 0) {
             loader = 0x10;
@@ -142,6 +153,27 @@ public final class Mapper001 extends Mapper {
         select16Lo = 0;
         select16Hi = prgBanks - 1;
         select32 = 0;
+        prgRemapped();
+    }
+
+    @Override
+    void save(ByteBuffer out) {
+        out.put((byte) loader).put((byte) control)
+            .put((byte) select4Lo).put((byte) select4Hi).put((byte) select8)
+            .put((byte) select16Lo).put((byte) select16Hi).put((byte) select32);
+    }
+
+    @Override
+    void load(ByteBuffer in) {
+        loader = in.get();
+        control = in.get();
+        select4Lo = in.get();
+        select4Hi = in.get();
+        select8 = in.get();
+        select16Lo = in.get();
+        select16Hi = in.get();
+        select32 = in.get();
+        prgRemapped();
     }
 
 }
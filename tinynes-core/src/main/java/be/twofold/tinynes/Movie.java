@@ -0,0 +1,297 @@
+package be.twofold.tinynes;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.zip.*;
+
+/**
+ * The controller input of every frame since power on, with hashes to check a replay against.
+ * <p>
+ * Input is stored as runs of frames with the same buttons held. Every frame has a hash of RAM, and every
+ * {@link #interval()} frames the picture is hashed as well, so a replay that goes its own way is caught
+ * on the frame where it happens.
+ */
+public final class Movie {
+    private static final int Magic = 0x544E4D56; // "TNMV"
+    private static final int Version = 1;
+
+    private final int checksum;
+    private final int interval;
+    private final int[] inputs;
+    private final int[] ramHashes;
+    private final int[] frameHashes;
+
+    private Movie(int checksum, int interval, int[] inputs, int[] ramHashes, int[] frameHashes) {
+        this.checksum = checksum;
+        this.interval = interval;
+        this.inputs = inputs;
+        this.ramHashes = ramHashes;
+        this.frameHashes = frameHashes;
+    }
+
+    public int frames() {
+        return inputs.length;
+    }
+
+    /**
+     * The number of frames between hashes of the picture.
+     */
+    public int interval() {
+        return interval;
+    }
+
+    // region IO
+
+    public static Movie read(InputStream in) {
+        try {
+            DataInputStream data = new DataInputStream(new BufferedInputStream(in));
+            if (data.readInt() != Magic) {
+                throw new IOException("Invalid magic number");
+            }
+            int version = data.readInt();
+            if (version != Version) {
+                throw new IOException("Unsupported movie version: " + version);
+            }
+            int checksum = data.readInt();
+            int interval = data.readInt();
+            int frames = data.readInt();
+            if (interval <= 0 || frames < 0) {
+                throw new IOException("Invalid movie header");
+            }
+
+            int[] inputs = new int[frames];
+            for (int frame = 0; frame < frames; ) {
+                int count = data.readInt();
+                int input = data.readUnsignedShort();
+                if (count <= 0 || count > frames - frame) {
+                    throw new IOException("Invalid input run at frame " + frame);
+                }
+                Arrays.fill(inputs, frame, frame + count, input);
+                frame += count;
+            }
+            int[] ramHashes = readInts(data, frames);
+            int[] frameHashes = readInts(data, checkpoints(frames, interval));
+            return new Movie(checksum, interval, inputs, ramHashes, frameHashes);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public static Movie read(Path path) {
+        try (InputStream in = Files.newInputStream(path)) {
+            return read(in);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public void write(OutputStream out) {
+        try {
+            DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+            data.writeInt(Magic);
+            data.writeInt(Version);
+            data.writeInt(checksum);
+            data.writeInt(interval);
+            data.writeInt(inputs.length);
+            for (int frame = 0; frame < inputs.length; ) {
+                int end = frame + 1;
+                while (end < inputs.length && inputs[end] == inputs[frame]) {
+                    end++;
+                }
+                data.writeInt(end - frame);
+                data.writeShort(inputs[frame]);
+                frame = end;
+            }
+            for (int hash : ramHashes) {
+                data.writeInt(hash);
+            }
+            for (int hash : frameHashes) {
+                data.writeInt(hash);
+            }
+            data.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public void write(Path path) {
+        try (OutputStream out = Files.newOutputStream(path)) {
+            write(out);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static int[] readInts(DataInputStream data, int count) throws IOException {
+        int[] result = new int[count];
+        for (int i = 0; i < count; i++) {
+            result[i] = data.readInt();
+        }
+        return result;
+    }
+
+    // endregion
+
+    private static int checkpoints(int frames, int interval) {
+        return (frames + interval - 1) / interval;
+    }
+
+    private static int input(Nes nes) {
+        return nes.controller1().getState() | nes.controller2().getState() << 8;
+    }
+
+    private static int ramHash(CRC32C crc, Nes nes) {
+        crc.reset();
+        crc.update(nes.cpuBus().ram());
+        byte[] prgRam = nes.cartridge().prgRam();
+        if (prgRam != null) {
+            crc.update(prgRam);
+        }
+        return (int) crc.getValue();
+    }
+
+    private static int frameHash(CRC32C crc, Nes nes) {
+        crc.reset();
+        crc.update(nes.ppu().frame());
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Records a movie, from a machine that was just powered on.
+     */
+    public static final class Recorder {
+        private final CRC32C crc = new CRC32C();
+        private final Nes nes;
+        private final int interval;
+        private int[] inputs = new int[1024];
+        private int[] ramHashes = new int[1024];
+        private int[] frameHashes = new int[64];
+        private int frames;
+
+        /**
+         * @param interval The number of frames between hashes of the picture
+         */
+        public Recorder(Nes nes, int interval) {
+            if (interval <= 0) {
+                throw new IllegalArgumentException("Interval must be positive: " + interval);
+            }
+            this.nes = nes;
+            this.interval = interval;
+        }
+
+        public int frames() {
+            return frames;
+        }
+
+        /**
+         * Whether the picture of the next frame gets hashed, which means it has to be drawn.
+         */
+        public boolean needsFrame() {
+            return frames % interval == 0;
+        }
+
+        /**
+         * Records the input and hashes of the frame that just ran.
+         */
+        public void record() {
+            if (needsFrame() && !nes.ppu().isDrawing()) {
+                throw new IllegalStateException("Frame " + frames + " has to be drawn");
+            }
+            if (frames == inputs.length) {
+                inputs = Arrays.copyOf(inputs, frames * 2);
+                ramHashes = Arrays.copyOf(ramHashes, frames * 2);
+            }
+            if (needsFrame()) {
+                int checkpoint = frames / interval;
+                if (checkpoint == frameHashes.length) {
+                    frameHashes = Arrays.copyOf(frameHashes, checkpoint * 2);
+                }
+                frameHashes[checkpoint] = frameHash(crc, nes);
+            }
+            inputs[frames] = input(nes);
+            ramHashes[frames] = ramHash(crc, nes);
+            frames++;
+        }
+
+        public Movie finish() {
+            return new Movie(
+                nes.cartridge().checksum(),
+                interval,
+                Arrays.copyOf(inputs, frames),
+                Arrays.copyOf(ramHashes, frames),
+                Arrays.copyOf(frameHashes, checkpoints(frames, interval))
+            );
+        }
+    }
+
+    /**
+     * Replays a movie on a machine that was just powered on, and checks every frame against the recording.
+     */
+    public static final class Player {
+        private final CRC32C crc = new CRC32C();
+        private final Movie movie;
+        private final Nes nes;
+        private int frame;
+
+        public Player(Movie movie, Nes nes) {
+            if (movie.checksum != nes.cartridge().checksum()) {
+                throw new IllegalArgumentException("Movie was recorded with a different ROM");
+            }
+            this.movie = movie;
+            this.nes = nes;
+        }
+
+        /**
+         * The number of the next frame.
+         */
+        public int frame() {
+            return frame;
+        }
+
+        public boolean hasNext() {
+            return frame < movie.frames();
+        }
+
+        /**
+         * Whether the picture of the next frame gets checked, which only happens when it's drawn.
+         */
+        public boolean needsFrame() {
+            return frame % movie.interval == 0;
+        }
+
+        /**
+         * Sets the controllers to what they were during the next frame.
+         */
+        public void beforeFrame() {
+            int input = movie.inputs[frame];
+            nes.controller1().setState(input);
+            nes.controller2().setState(input >>> 8);
+        }
+
+        /**
+         * Checks the frame that just ran against the recording.
+         *
+         * @throws IllegalStateException If the frame differs, with the frame number in the message
+         */
+        public void afterFrame() {
+            int ram = ramHash(crc, nes);
+            if (ram != movie.ramHashes[frame]) {
+                throw diverged("RAM", ram, movie.ramHashes[frame]);
+            }
+            if (needsFrame() && nes.ppu().isDrawing()) {
+                int expected = movie.frameHashes[frame / movie.interval];
+                int actual = frameHash(crc, nes);
+                if (actual != expected) {
+                    throw diverged("picture", actual, expected);
+                }
+            }
+            frame++;
+        }
+
+        private IllegalStateException diverged(String what, int actual, int expected) {
+            return new IllegalStateException(String.format(
+                "Replay diverged at frame %d: %s hash is %08x, recorded %08x", frame, what, actual, expected));
+        }
+    }
+}
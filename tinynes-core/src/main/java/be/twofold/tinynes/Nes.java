@@ -0,0 +1,544 @@
+package be.twofold.tinynes;
+
+import java.nio.*;
+
+public final class Nes {
+
+    private final Cartridge cartridge;
+    private final Cpu cpu;
+    private final Ppu ppu;
+    private final Apu apu = new Apu();
+    private final CpuBus cpuBus;
+    private final PpuBus ppuBus;
+    private final Dma dma;
+    private final Scheduler scheduler = new Scheduler();
+    private boolean batch;
+    private boolean idleLoops;
+    private long ppuCycle = 0;
+    private long runCycle;
+    private long runTotalCycles;
+    long cycle = 0;
+
+    public Nes(Cartridge cartridge) {
+        this.cartridge = cartridge;
+
+        // Create the PPU
+        ppuBus = new PpuBus(cartridge);
+        ppu = new Ppu(ppuBus);
+
+        // Create the CPU
+        cpuBus = new CpuBus(cartridge, ppu, apu);
+        cpu = new Cpu(cpuBus);
+
+        // TODO: Fix this
+        dma = cpuBus.dma;
+        cpuBus.setSync(new CpuBus.Sync() {
+            @Override
+            public void beforePpuAccess() {
+                syncPpu();
+            }
+
+            @Override
+            public void dmaStarted() {
+                syncDma();
+            }
+        });
+    }
+
+    public Cartridge cartridge() {
+        return cartridge;
+    }
+
+    public Cpu cpu() {
+        return cpu;
+    }
+
+    public Ppu ppu() {
+        return ppu;
+    }
+
+    public Apu apu() {
+        return apu;
+    }
+
+    public CpuBus cpuBus() {
+        return cpuBus;
+    }
+
+    public PpuBus ppuBus() {
+        return ppuBus;
+    }
+
+    public Controller controller1() {
+        return cpuBus.controller1();
+    }
+
+    public Controller controller2() {
+        return cpuBus.controller2();
+    }
+
+    public boolean isBatch() {
+        return batch;
+    }
+
+    /**
+     * Switches between lockstep execution, where every PPU dot is interleaved with the CPU,
+     * and batch execution, where the CPU runs ahead and the PPU only catches up when the CPU could notice.
+     * Lockstep is kept as the reference, batch produces the same output.
+     */
+    public void setBatch(boolean batch) {
+        if (batch && !this.batch) {
+            // The batch loop always starts on a CPU cycle
+            while ((cycle % 3) != 0) {
+                clock();
+            }
+            ppuCycle = cycle;
+            scheduler.clear();
+        } else if (!batch && this.batch) {
+            catchUp(cycle);
+        }
+        this.batch = batch;
+    }
+
+    /**
+     * Enables skipping over loops that only poll RAM or PPUSTATUS, until the next NMI or status change.
+     * Only used by {@link #runFrame()} in batch mode.
+     */
+    public void setIdleLoops(boolean idleLoops) {
+        this.idleLoops = idleLoops;
+        idleCount = 0;
+        idleFound = false;
+    }
+
+    /**
+     * Enables compiling hot code in PRG ROM, which kicks in when the CPU is run with a large enough budget.
+     */
+    public void setRecompiler(boolean enabled) {
+        cpu.setRecompiler(enabled ? new Recompiler(cartridge) : null);
+    }
+
+    public void clock() {
+        ppu.clock();
+        if ((cycle % 3) == 0) {
+            if (!dma.clock(cycle)) {
+                cpu.clock();
+            }
+        }
+        if (ppu.nmi && cpu.cycles == 0) {
+            ppu.nmi = false;
+            cpu.nmi();
+        }
+        cycle++;
+    }
+
+    public void step() {
+        if (batch) {
+            stepBatch();
+            return;
+        }
+
+        for (int i = 0; i < 3; i++) {
+            clock();
+        }
+        while (cpu.cycles != 0) {
+            clock();
+        }
+    }
+
+    public void runFrame() {
+        if (batch) {
+            // Lockstep stops right after the dot that wraps the PPU around
+            long end = ppuCycle + ppu.dotsUntilFrameEnd();
+            scheduleFrame(end);
+            while (cycle < end) {
+                if (idleLoops) {
+                    stepBatch();
+                    if (idleFound) {
+                        skipIdleLoop(end);
+                    }
+                } else {
+                    runBatch();
+                }
+            }
+            catchUp(end);
+            return;
+        }
+
+        do {
+            clock();
+        } while (ppu.row != 0 || ppu.col != 0);
+
+//        System.out.println("------------------------------");
+//        byte[] table = ppuBus.nameTable;
+//        String nameTable = new String(table, StandardCharsets.US_ASCII);
+//        for (int i = 0; i < nameTable.length() / 2; i += 32) {
+//            System.out.println(nameTable.substring(i, i + 32));
+//        }
+    }
+
+    public void reset() {
+        cpu.reset();
+        ppu.reset();
+        apu.reset();
+        cycle = 0;
+        ppuCycle = 0;
+        scheduler.clear();
+    }
+
+    // region State
+
+    private static final int StateMagic = 0x544E4553; // "TNES"
+    private static final int StateVersion = 3;
+    private static final int StateHeaderSize = 16;
+
+    private int stateSize;
+
+    /**
+     * The number of bytes {@link #saveState(ByteBuffer)} writes, so a buffer can be allocated once and reused.
+     */
+    public int stateSize() {
+        if (stateSize == 0) {
+            // Plenty for all RAM of the supported mappers, this only runs once
+            ByteBuffer buffer = ByteBuffer.allocate(0x10000);
+            saveState(buffer);
+            stateSize = buffer.position();
+        }
+        return stateSize;
+    }
+
+    /**
+     * Writes the state of the whole machine at the buffer's position, which has to have {@link #stateSize()} bytes left.
+     * Saving has no effect on the machine, in batch mode the PPU is saved as far as it got, and catches up later.
+     * States can be loaded in either mode.
+     */
+    public void saveState(ByteBuffer buffer) {
+        int start = buffer.position();
+        buffer.putInt(StateMagic).putInt(StateVersion).putInt(0).putInt(cartridge.checksum());
+        cartridge.save(buffer);
+        cpu.save(buffer);
+        cpuBus.save(buffer);
+        ppu.save(buffer);
+        ppuBus.save(buffer);
+        buffer.putLong(cycle).putLong(batch ? ppuCycle : cycle);
+        buffer.putInt(start + 8, buffer.position() - start);
+    }
+
+    /**
+     * Reads a state written by {@link #saveState(ByteBuffer)} for the same game, from the buffer's position.
+     *
+     * @throws IllegalArgumentException If the buffer does not hold a state this machine can load
+     */
+    public void loadState(ByteBuffer buffer) {
+        int start = buffer.position();
+        if (buffer.remaining() < StateHeaderSize || buffer.getInt(start) != StateMagic) {
+            throw new IllegalArgumentException("Not a save state");
+        }
+        int version = buffer.getInt(start + 4);
+        if (version != StateVersion) {
+            throw new IllegalArgumentException("Unsupported save state version: " + version);
+        }
+        int size = buffer.getInt(start + 8);
+        if (size != stateSize() || buffer.remaining() < size || buffer.getInt(start + 12) != cartridge.checksum()) {
+            throw new IllegalArgumentException("Save state does not match the cartridge");
+        }
+
+        buffer.position(start + StateHeaderSize);
+        cartridge.load(buffer);
+        cpu.load(buffer);
+        cpuBus.load(buffer);
+        ppu.load(buffer);
+        ppuBus.load(buffer);
+        cycle = buffer.getLong();
+        ppuCycle = buffer.getLong();
+        scheduler.clear();
+        idleCount = 0;
+        idleFound = false;
+
+        // Lockstep needs the PPU caught up, and so does batch mode when the state stopped between CPU cycles
+        if (!batch || (cycle % 3) != 0) {
+            catchUp(cycle);
+        }
+        if (batch && (cycle % 3) != 0) {
+            batch = false;
+            setBatch(true);
+        }
+        // A transfer interrupted in lockstep finishes before the CPU resumes
+        if (batch && dma.active()) {
+            cycle += dma.run(cycle) * 3L;
+        }
+    }
+
+    // endregion
+
+    // region Batch
+
+    /**
+     * Runs a single instruction, with the PPU seeing the same dots as it would in lockstep.
+     */
+    private void stepBatch() {
+        catchUp(cycle);
+        checkNmi();
+        execute();
+    }
+
+    private void execute() {
+        // In lockstep, the PPU runs its dot before the CPU does
+        catchUp(cycle + 1);
+        if (idleLoops) {
+            recordIdleLoop();
+        }
+        runCpu(1);
+    }
+
+    /**
+     * Runs the CPU until the next event, or a bit past it, as it only stops between instructions.
+     * The PPU only catches up when the CPU touches it.
+     */
+    private void runBatch() {
+        // The PPU only raises an NMI on the vertical blank, where it caught up already
+        checkNmi();
+        runCpu(Math.max((scheduler.nextTime() - cycle + 2) / 3, 1));
+    }
+
+    private void runCpu(long budget) {
+        runCycle = cycle;
+        runTotalCycles = cpu.totalCycles;
+        cycle += cpu.run(budget) * 3;
+        dispatch();
+    }
+
+    private void checkNmi() {
+        // An NMI raised before this cycle is taken before the next instruction
+        if (ppu.nmi && cpu.cycles == 0) {
+            ppu.nmi = false;
+            cpu.nmi();
+            idleCount = 0;
+        }
+    }
+
+    /**
+     * Catches up to the CPU cycle that is running, the instruction start in batch mode, or the DMA slot.
+     */
+    private void syncPpu() {
+        if (!batch) {
+            return;
+        }
+        if (dma.active()) {
+            catchUp(dma.cycle() + 1);
+        } else {
+            catchUp(currentCycle() + 1);
+        }
+    }
+
+    private void syncDma() {
+        if (!batch) {
+            return;
+        }
+        // In lockstep, the transfer takes over on the next cycle, and the instruction finishes after it
+        scheduler.schedule(Scheduler.Event.DMA, currentCycle() + 3);
+        cpu.stop();
+    }
+
+    private long currentCycle() {
+        return runCycle + (cpu.totalCycles - runTotalCycles) * 3;
+    }
+
+    private void catchUp(long target) {
+        while (ppuCycle < target) {
+            // Nothing can touch the PPU while it catches up, so whole lines can go in one go
+            if (ppu.col == 0 && target - ppuCycle >= 341) {
+                ppu.clockLine();
+                ppuCycle += 341;
+            } else {
+                ppu.clock();
+                ppuCycle++;
+            }
+        }
+    }
+
+    // endregion
+
+    // region Events
+
+    private void scheduleFrame(long end) {
+        scheduler.schedule(Scheduler.Event.FRAME_END, end);
+        scheduler.schedule(Scheduler.Event.SCANLINE, ppuCycle + ppu.dotsUntilNextLine());
+        // The NMI is taken on the first instruction that starts after the dot that raises it
+        scheduler.schedule(Scheduler.Event.VERTICAL_BLANK, ppuCycle + ppu.dotsUntilVerticalBlank() + 1);
+    }
+
+    /**
+     * Handles every event that is due, in order.
+     */
+    private void dispatch() {
+        while (true) {
+            Scheduler.Event event = scheduler.next();
+            long time = scheduler.time(event);
+            if (time > cycle) {
+                return;
+            }
+            scheduler.cancel(event);
+            switch (event) {
+                case DMA -> cycle += dma.run(time) * 3L;
+                case SCANLINE -> {
+                    // Keeps the PPU at most a line behind, so it can run whole lines
+                    catchUp(time);
+                    scheduler.schedule(Scheduler.Event.SCANLINE, time + 341);
+                }
+                case VERTICAL_BLANK -> {
+                    catchUp(cycle);
+                    scheduler.schedule(Scheduler.Event.VERTICAL_BLANK, time + 262 * 341);
+                }
+                case FRAME_END -> {
+                }
+            }
+        }
+    }
+
+    // endregion
+
+    // region Idle Loops
+
+    private static final int MaxIdleInstructions = 4;
+
+    // One iteration of the loop, as seen at the start of each instruction
+    private final int[] idlePcs = new int[MaxIdleInstructions];
+    private final long[] idleOffsets = new long[MaxIdleInstructions];
+    private final int[] idleStatus = new int[MaxIdleInstructions];
+    private final int[] idleRegisters = new int[MaxIdleInstructions * 4];
+    private int idleCount;
+    private int idlePeriod;
+    private long idleBase;
+    private int idleLastPc;
+    private boolean idleFound;
+
+    /**
+     * Records the instructions run after a backward jump, until the loop gets back to its first instruction.
+     * When the registers are the same as in the previous iteration, and every instruction only reads,
+     * the next iterations do exactly the same as long as the PPU doesn't raise an NMI or change its status.
+     */
+    private void recordIdleLoop() {
+        if (idleFound) {
+            // Only runFrame skips loops
+            idleFound = false;
+            idleCount = 0;
+        }
+
+        int pc = cpu.pc;
+        if (idleCount > 0 && pc == idlePcs[0]) {
+            if (cpu.a == idleRegisters[0] && cpu.x == idleRegisters[1] && cpu.y == idleRegisters[2] && cpu.getP() == idleRegisters[3]
+                && idleStatus[0] == idleStatus(pc)) {
+                idlePeriod = (int) (cycle - idleOffsets[0]);
+                idleBase = cycle;
+                for (int i = idleCount - 1; i >= 0; i--) {
+                    idleOffsets[i] -= idleOffsets[0];
+                }
+                idleFound = true;
+                return;
+            }
+            idleCount = 0;
+        }
+
+        if (idleCount == 0 && pc > idleLastPc) {
+            idleLastPc = pc;
+            return;
+        }
+        idleLastPc = pc;
+
+        int status = idleStatus(pc);
+        if (idleCount == MaxIdleInstructions || status == -2) {
+            idleCount = 0;
+            return;
+        }
+        idlePcs[idleCount] = pc;
+        idleOffsets[idleCount] = cycle;
+        idleStatus[idleCount] = status;
+        idleRegisters[idleCount * 4] = cpu.a;
+        idleRegisters[idleCount * 4 + 1] = cpu.x;
+        idleRegisters[idleCount * 4 + 2] = cpu.y;
+        idleRegisters[idleCount * 4 + 3] = cpu.getP();
+        idleCount++;
+    }
+
+    /**
+     * Checks if the instruction at the given address has no side effects.
+     *
+     * @return The PPU status it will read, -1 if it doesn't read it, or -2 if the instruction can't be part of an idle loop
+     */
+    private int idleStatus(int pc) {
+        // Reading code from I/O registers has side effects of its own
+        if (pc >= 0x2000 && pc < 0x6000) {
+            return -2;
+        }
+        switch (cpu.read(pc)) {
+            // Branches, JMP abs and NOP
+            case 0x10, 0x30, 0x50, 0x70, 0x90, 0xB0, 0xD0, 0xF0, 0x4C, 0xEA:
+            // LDA, LDX, LDY, CMP, CPX, CPY, AND immediate
+            case 0xA9, 0xA2, 0xA0, 0xC9, 0xE0, 0xC0, 0x29:
+                return -1;
+            // LDA, LDX, LDY, BIT, CMP, CPX, CPY, AND zero page
+            case 0xA5, 0xA6, 0xA4, 0x24, 0xC5, 0xE4, 0xC4, 0x25:
+                return -1;
+            // LDA, LDX, LDY, BIT, CMP, CPX, CPY, AND absolute
+            case 0xAD, 0xAE, 0xAC, 0x2C, 0xCD, 0xEC, 0xCC, 0x2D:
+                int address = cpu.read16(pc + 1);
+                if (address < 0x2000 || address >= 0x6000) {
+                    return -1;
+                }
+                if ((address & 0xE007) == 0x2002) {
+                    return ppu.status();
+                }
+                return -2;
+            default:
+                return -2;
+        }
+    }
+
+    /**
+     * Skips iterations of a recorded idle loop, while clocking the PPU as if they ran.
+     * Stops at the first instruction that would see an NMI or a different PPU status, or at the end of the frame.
+     */
+    private void skipIdleLoop(long end) {
+        idleFound = false;
+
+        // The first instruction of the loop already ran when the loop was found
+        long start = cycle;
+        for (long n = 1; ; n++) {
+            int i = (int) (n % idleCount);
+            long target = idleBase + (n / idleCount) * idlePeriod + idleOffsets[i];
+            if (target >= end) {
+                stopIdleLoop(i, start, target);
+                return;
+            }
+            catchUp(target);
+            if (ppu.nmi) {
+                stopIdleLoop(i, start, target);
+                return;
+            }
+            if (idleStatus[i] >= 0) {
+                catchUp(target + 1);
+                if (ppu.status() != idleStatus[i]) {
+                    // The NMI check for this cycle already happened, so run the instruction right away
+                    stopIdleLoop(i, start, target);
+                    execute();
+                    return;
+                }
+            }
+        }
+    }
+
+    private void stopIdleLoop(int index, long start, long target) {
+        cpu.pc = idlePcs[index];
+        cpu.a = idleRegisters[index * 4];
+        cpu.x = idleRegisters[index * 4 + 1];
+        cpu.y = idleRegisters[index * 4 + 2];
+        cpu.setP(idleRegisters[index * 4 + 3]);
+        cpu.totalCycles += (target - start) / 3;
+        cycle = target;
+        idleCount = 0;
+        idleLastPc = cpu.pc;
+    }
+
+    // endregion
+
+}
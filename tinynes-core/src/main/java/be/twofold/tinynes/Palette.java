@@ -1,12 +1,15 @@
 package be.twofold.tinynes;
 
-import java.awt.image.*;
 import java.io.*;
 
 public final class Palette {
 
     public static final int[] Palette = loadPalette();
-    private static final IndexColorModel ColorModel = createColorModel();
+
+    /**
+     * ARGB for every color and emphasis combination, indexed by {@code (PPUMASK & 0xE0) << 1 | color}.
+     */
+    public static final int[] Argb = createArgb();
 
     private static int[] loadPalette() {
         byte[] rawPalette;
@@ -29,17 +32,23 @@ public final class Palette {
         return colors;
     }
 
-    private static IndexColorModel createColorModel() {
-        byte[] r = new byte[Palette.length];
-        byte[] g = new byte[Palette.length];
-        byte[] b = new byte[Palette.length];
-        for (int i = 0; i < Palette.length; i++) {
-            r[i] = (byte) ((Palette[i] & 0x00ff0000) >> 16);
-            g[i] = (byte) ((Palette[i] & 0x0000ff00) >> 8);
-            b[i] = (byte) ((Palette[i] & 0x000000ff) >> 0);
+    private static int[] createArgb() {
+        // Every emphasis bit dims the two other channels
+        double dim = 0.816328;
+        int[] argb = new int[8 * 64];
+        for (int emphasis = 0; emphasis < 8; emphasis++) {
+            double r = ((emphasis & 0x02) != 0 ? dim : 1) * ((emphasis & 0x04) != 0 ? dim : 1);
+            double g = ((emphasis & 0x01) != 0 ? dim : 1) * ((emphasis & 0x04) != 0 ? dim : 1);
+            double b = ((emphasis & 0x01) != 0 ? dim : 1) * ((emphasis & 0x02) != 0 ? dim : 1);
+            for (int i = 0; i < 64; i++) {
+                int color = Palette[i];
+                argb[emphasis << 6 | i] = 0xff << 24
+                    | (int) (((color >> 16) & 0xff) * r) << 16
+                    | (int) (((color >> 8) & 0xff) * g) << 8
+                    | (int) ((color & 0xff) * b);
+            }
         }
-
-        return new IndexColorModel(4, Palette.length, r, g, b);
+        return argb;
     }
 
 //    public static void main(String[] args) throws IOException {
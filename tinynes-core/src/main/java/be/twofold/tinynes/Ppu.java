@@ -0,0 +1,824 @@
+package be.twofold.tinynes;
+
+import java.nio.*;
+import java.util.*;
+
+public final class Ppu {
+
+    // Palette
+    private final byte[] frame = new byte[256 * 240];
+    private final byte[] oam = new byte[0x100];
+    private final PpuBus bus;
+    private int[] output;
+    private IntBuffer outputBuffer;
+    private boolean drawing = true;
+
+    // PPU Address Logic
+    private boolean latch;
+    private boolean frameIsOdd;
+
+    private int ppuCtrl;
+    private int ppuMask;
+    private int ppuStatus;
+    private int oamAddr;
+
+    // Running counters
+    boolean nmi;
+    int row = 0;
+    int col = 0;
+
+    public Ppu(PpuBus bus) {
+        this.bus = bus;
+    }
+
+    // region Flags
+
+    // PPUCTRL
+
+    public int addressIncrement() {
+        return (ppuCtrl & 0x04) != 0 ? 32 : 1;
+    }
+
+    public int spriteTable() {
+        return (ppuCtrl & 0x08) << 9;
+    }
+
+    public int backgroundTable() {
+        return (ppuCtrl & 0x10) << 8;
+    }
+
+    public int spriteSize() {
+        return 8 << ((ppuCtrl & 0x20) >> 5);
+    }
+
+    public boolean nmi() {
+        return (ppuCtrl & 0x80) != 0;
+    }
+
+
+    // PPUMASK
+
+    public boolean renderBackgroundLeft() {
+        return (ppuMask & 0x02) != 0;
+    }
+
+    public boolean renderSpritesLeft() {
+        return (ppuMask & 0x04) != 0;
+    }
+
+    public boolean renderBackground() {
+        return (ppuMask & 0x08) != 0;
+    }
+
+    public boolean renderSprites() {
+        return (ppuMask & 0x10) != 0;
+    }
+
+    private boolean rendering() {
+        return (ppuMask & 0x18) != 0;
+    }
+
+
+    // PPUSTATUS
+
+    public void verticalBlank(boolean value) {
+        ppuStatus = (ppuStatus & ~0x80) | (value ? 0x80 : 0);
+    }
+
+    public void spriteZeroHit(boolean value) {
+        ppuStatus = (ppuStatus & ~0x40) | (value ? 0x40 : 0);
+    }
+
+    public void spriteOverflow(boolean value) {
+        ppuStatus = (ppuStatus & ~0x20) | (value ? 0x20 : 0);
+    }
+
+    // endregion
+
+    // region PPU Registers
+
+    private int v;
+    private int t;
+    private int x;
+
+    private int coarseX() {
+        return v & 0x1F;
+    }
+
+    private int coarseY() {
+        return (v >>> 5) & 0x1F;
+    }
+
+    public int fineY() {
+        return (v >>> 12) & 0x07;
+    }
+
+    private void tempNameTable(int value) {
+        assert value >= 0 && value <= 3;
+        t = (t & 0xF3FF) | (value << 10);
+    }
+
+    // endregion
+
+    public void clock() {
+        if (row >= 0 && row < 240 || row == 261) {
+            // Sprites
+            switch (col) {
+                case 257 -> filterSprites();
+                case 340 -> prepareSprites();
+            }
+
+            // Background
+            updateBackground();
+        }
+
+        if (row == 241)
+            if (col == 1) {
+                verticalBlank(true);
+
+                if (nmi()) {
+                    nmi = true;
+                }
+            }
+
+        if (row == 261) {
+            if (col == 1) {
+                verticalBlank(false);
+                spriteOverflow(false);
+                spriteZeroHit(false);
+            }
+            if (col >= 280 && col < 305) {
+                transferY();
+            }
+        }
+
+        if (++col > 340) {
+            col = 0;
+            if (++row > 261) {
+                row = 0;
+                frameIsOdd = !frameIsOdd;
+            }
+        }
+    }
+
+    /**
+     * The value a read from PPUSTATUS would return right now.
+     */
+    int status() {
+        return ppuStatus & 0xE0;
+    }
+
+    int dotsUntilFrameEnd() {
+        return 262 * 341 - (row * 341 + col);
+    }
+
+    int dotsUntilNextLine() {
+        return 341 - col;
+    }
+
+    /**
+     * The number of dots until the one that sets the vertical blank flag, and raises the NMI.
+     */
+    int dotsUntilVerticalBlank() {
+        return Math.floorMod(241 * 341 + 1 - (row * 341 + col), 262 * 341);
+    }
+
+    // region Sprites
+
+    private final byte[] spriteScanline = new byte[32];
+    private final int[] spritePixels = new int[8];
+    private final int[] spriteIds = new int[8];
+
+    // Per pixel: sprite palette in the low 5 bits, 0x20 if in front, 0x40 if sprite 0
+    private final int[] lineSprites = new int[256];
+    private boolean lineSpriteZero;
+
+    // The first 8 sprites on each visible line, a count of 8 means overflow
+    private final byte[] spriteBuckets = new byte[240 * 8];
+    private final byte[] spriteCounts = new byte[240];
+    private int spriteBucketSize;
+    private boolean oamDirty = true;
+
+    private void filterSprites() {
+        Arrays.fill(spriteScanline, (byte) 0xFF);
+        Arrays.fill(spritePixels, 0);
+        if (row == 261) return;
+
+        if (oamDirty || spriteBucketSize != spriteSize()) {
+            fillSpriteBuckets();
+        }
+
+        int spriteCount = spriteCounts[row];
+        for (int i = 0; i < spriteCount; i++) {
+            int spriteId = spriteBuckets[row * 8 + i];
+            System.arraycopy(oam, spriteId * 4, spriteScanline, i * 4, 4);
+            spriteIds[i] = spriteId;
+        }
+        if (spriteCount == 8) {
+            spriteOverflow(true);
+        }
+    }
+
+    /**
+     * Sorts the sprites by line in one pass over OAM, instead of a pass for every line.
+     */
+    private void fillSpriteBuckets() {
+        Arrays.fill(spriteCounts, (byte) 0);
+        int spriteSize = spriteSize();
+        for (int i = 0; i < 64; i++) {
+            int spriteY = getSpriteY(oam, i);
+            int end = Math.min(spriteY + spriteSize, 240);
+            for (int line = spriteY; line < end; line++) {
+                int count = spriteCounts[line];
+                if (count < 8) {
+                    spriteBuckets[line * 8 + count] = (byte) i;
+                    spriteCounts[line] = (byte) (count + 1);
+                }
+            }
+        }
+        spriteBucketSize = spriteSize;
+        oamDirty = false;
+    }
+
+    private void prepareSprites() {
+        for (int i = 0; i < 8; i++) {
+            int spriteId = getSpriteId(spriteScanline, i);
+            int spriteSize = spriteSize();
+            int spriteAddress = spriteSize == 8
+                ? spriteTable() | spriteId << 4
+                : (spriteId & 0x01) << 12 | (spriteId & 0xFE) << 4;
+
+            int spriteY = (row - getSpriteY(spriteScanline, i)) % spriteSize;
+            if ((getSpriteAttr(spriteScanline, i) & 0x80) != 0) {
+                spriteY ^= spriteSize - 1;
+            }
+
+            int address = (spriteAddress | spriteY & 0x08) + spriteY;
+            spritePixels[i] = patternRow(address, (getSpriteAttr(spriteScanline, i) & 0x40) != 0);
+        }
+        fillLineSprites();
+    }
+
+    /**
+     * Resolves the sprites for every pixel of the next line, the first sprite with an opaque pixel wins.
+     */
+    private void fillLineSprites() {
+        Arrays.fill(lineSprites, 0);
+        lineSpriteZero = false;
+        for (int i = 7; i >= 0; i--) {
+            int spriteX = getSpriteX(spriteScanline, i);
+            int spriteAttr = getSpriteAttr(spriteScanline, i);
+            int sprite = ((spriteAttr & 0x03) | 0x04) << 2
+                | ((spriteAttr & 0x20) == 0 ? 0x20 : 0)
+                | (spriteIds[i] == 0 ? 0x40 : 0);
+
+            for (int j = 0; j < 8 && spriteX + j < 256; j++) {
+                int pixel = (spritePixels[i] >>> ((7 - j) << 1)) & 0x03;
+                if (pixel != 0) {
+                    lineSprites[spriteX + j] = sprite | pixel;
+                    lineSpriteZero |= (sprite & 0x40) != 0;
+                }
+            }
+        }
+    }
+
+    private int getSpriteX(byte[] table, int index) {
+        return Byte.toUnsignedInt(table[index * 4 + 3]);
+    }
+
+    private int getSpriteY(byte[] table, int index) {
+        return Byte.toUnsignedInt(table[index * 4]);
+    }
+
+    private int getSpriteId(byte[] table, int index) {
+        return Byte.toUnsignedInt(table[index * 4 + 1]);
+    }
+
+    private int getSpriteAttr(byte[] table, int index) {
+        return table[index * 4 + 2];
+    }
+
+    // endregion
+
+    // region Background
+
+    private int bgNextId;
+    private int bgNextAttr;
+    private int bgNextPattern;
+    private int bgShifter;
+    private int bgAttrShifter;
+
+    private void updateBackground() {
+        if ((col >= 1 && col <= 257) || (col >= 321 && col <= 336)) {
+            updateShifters();
+
+            switch ((col - 1) & 0x07) {
+                case 0 -> {
+                    loadBackgroundShifters();
+                    fetchId();
+                }
+                case 2 -> fetchAttr();
+                case 4 -> fetchPattern();
+                case 7 -> incrementX();
+            }
+        }
+
+        if (col == 256) {
+            incrementY();
+        }
+
+        if (col == 257) {
+            loadBackgroundShifters();
+            transferX();
+        }
+
+        if (col == 338 || col == 340) {
+            fetchId();
+        }
+
+        renderPixel();
+    }
+
+    private void fetchId() {
+        bgNextId = read(0x2000 | (v & 0x0FFF));
+    }
+
+    private void fetchAttr() {
+        int x = coarseX();
+        int y = coarseY();
+
+        bgNextAttr = read(0x23c0 | v & 0x0C00 | ((y >> 2) << 3) | (x >> 2));
+        bgNextAttr >>= (y & 0x02) << 1;
+        bgNextAttr >>= (x & 0x02);
+        bgNextAttr &= 0x03;
+    }
+
+    private void fetchPattern() {
+        bgNextPattern = patternRow(backgroundTable() | (bgNextId << 4) | fineY(), false);
+    }
+
+    private void loadBackgroundShifters() {
+        bgShifter = (bgShifter & 0xFFFF0000) | bgNextPattern;
+        bgAttrShifter = (bgAttrShifter & 0xFFFF0000) | (bgNextAttr * 0x5555);
+    }
+
+    private void updateShifters() {
+        if (renderBackground()) {
+            bgShifter <<= 2;
+            bgAttrShifter <<= 2;
+        }
+    }
+
+    private void incrementX() {
+        if (!rendering()) {
+            return;
+        }
+
+        if ((v & 0x001F) == 31) {
+            v &= ~0x001F;
+            v ^= 0x0400;
+            return;
+        }
+
+        v += 1;
+    }
+
+    private void incrementY() {
+        if (!rendering()) {
+            return;
+        }
+
+        if ((v & 0x7000) != 0x7000) {
+            v += 0x1000;
+            return;
+        }
+
+        v &= ~0x7000;
+        int y = coarseY();
+        if (y == 29) {
+            y = 0;
+            v ^= 0x0800;
+        } else if (y == 31) {
+            y = 0;
+        } else {
+            y++;
+        }
+        v = (v & ~0x03E0) | (y << 5);
+    }
+
+    private void transferX() {
+        if (!rendering()) {
+            return;
+        }
+        v = (v & 0x7BE0) | (t & 0x041F);
+    }
+
+    private void transferY() {
+        if (!rendering()) {
+            return;
+        }
+        v = (v & 0x041F) | (t & 0x7BE0);
+    }
+
+    // endregion
+
+    private void renderPixel() {
+        int px = col - 1;
+        int py = row;
+        if (py < 0 || py >= 240 || px < 0 || px >= 256) {
+            return;
+        }
+
+        if (!drawing) {
+            spriteZeroPixel(px);
+            return;
+        }
+
+        byte color = bus.read(0x3F00 | palette(px));
+        int index = (py * 256) + px;
+        frame[index] = color;
+        if (output != null) {
+            output[index] = Palette.Argb[(ppuMask & 0xE0) << 1 | (color & 0x3F)];
+        } else if (outputBuffer != null) {
+            outputBuffer.put(index, Palette.Argb[(ppuMask & 0xE0) << 1 | (color & 0x3F)]);
+        }
+    }
+
+    private int palette(int px) {
+        int bgPalette = 0;
+        if (renderBackground() && (renderBackgroundLeft() || px >= 8)) {
+            int shift = 30 - (x << 1);
+            bgPalette = (bgShifter >>> shift) & 0x03;
+            if (bgPalette != 0) {
+                bgPalette |= ((bgAttrShifter >>> shift) & 0x03) << 2;
+            }
+        }
+
+        int fgPalette = 0;
+        boolean fgPriority = false;
+        if (renderSprites() && (renderSpritesLeft() || px >= 8)) {
+            int sprite = lineSprites[px];
+            if (sprite != 0) {
+                if ((sprite & 0x40) != 0 && bgPalette != 0) spriteZeroHit(true);
+                fgPalette = sprite & 0x1F;
+                fgPriority = (sprite & 0x20) != 0;
+            }
+        }
+
+        return priority(bgPalette, fgPalette, fgPriority);
+    }
+
+    /**
+     * Only sprite zero pixels can have an effect the CPU sees, so that's all that runs when not drawing.
+     */
+    private void spriteZeroPixel(int px) {
+        if ((lineSprites[px] & 0x40) != 0) {
+            palette(px);
+        }
+    }
+
+    // region Scanlines
+
+    private final byte[] lineColors = new byte[0x20];
+    private final int[] lineArgb = new int[0x20];
+
+    /**
+     * Runs a whole scanline from its first dot, with the same result as 341 calls to {@link #clock()}.
+     * Only valid when nothing touches the PPU during the line.
+     */
+    void clockLine() {
+        assert col == 0;
+
+        if (row < 240 || row == 261) {
+            renderLine();
+        } else if (row == 241) {
+            verticalBlank(true);
+
+            if (nmi()) {
+                nmi = true;
+            }
+        }
+
+        if (++row > 261) {
+            row = 0;
+            frameIsOdd = !frameIsOdd;
+        }
+    }
+
+    private void renderLine() {
+        boolean visible = row < 240;
+        if (visible) {
+            if (drawing) {
+                prepareLine();
+            }
+        } else {
+            verticalBlank(false);
+            spriteOverflow(false);
+            spriteZeroHit(false);
+        }
+
+        // Dots 1-256
+        if (drawing || spriteZeroCanHit(visible)) {
+            renderTiles(visible);
+        } else {
+            skipTiles();
+        }
+        incrementY();
+
+        // Dot 257
+        filterSprites();
+        updateShifters();
+        loadBackgroundShifters();
+        fetchId();
+        loadBackgroundShifters();
+        transferX();
+
+        // Dots 280-304
+        if (row == 261) {
+            transferY();
+        }
+
+        // Dots 321-336
+        for (int i = 0; i < 2; i++) {
+            updateShifters();
+            loadBackgroundShifters();
+            for (int j = 1; j < 8; j++) {
+                updateShifters();
+            }
+            fetchTile();
+            incrementX();
+        }
+
+        // Dots 338 and 340
+        fetchId();
+        prepareSprites();
+        fetchId();
+    }
+
+    private void renderTiles(boolean visible) {
+        for (int px = 0; px < 256; px += 8) {
+            updateShifters();
+            loadBackgroundShifters();
+            if (visible) {
+                renderLinePixel(px);
+            }
+            for (int i = 1; i < 8; i++) {
+                updateShifters();
+                if (visible) {
+                    renderLinePixel(px + i);
+                }
+            }
+            fetchTile();
+            incrementX();
+        }
+    }
+
+    private boolean spriteZeroCanHit(boolean visible) {
+        return visible && lineSpriteZero && renderBackground() && renderSprites() && (ppuStatus & 0x40) == 0;
+    }
+
+    /**
+     * Moves v along like dots 1-256 do, without fetching or shifting. What the fetches would have left behind
+     * is shifted out or overwritten by dot 336, so the next line starts out the same.
+     */
+    private void skipTiles() {
+        for (int i = 0; i < 32; i++) {
+            incrementX();
+        }
+    }
+
+    private void fetchTile() {
+        fetchId();
+        fetchAttr();
+        fetchPattern();
+    }
+
+    private void prepareLine() {
+        for (int i = 0; i < lineColors.length; i++) {
+            lineColors[i] = bus.read(0x3F00 | i);
+            lineArgb[i] = Palette.Argb[(ppuMask & 0xE0) << 1 | (lineColors[i] & 0x3F)];
+        }
+    }
+
+    private void renderLinePixel(int px) {
+        if (!drawing) {
+            spriteZeroPixel(px);
+            return;
+        }
+        int palette = palette(px);
+        int index = (row * 256) + px;
+        frame[index] = lineColors[palette];
+        if (output != null) {
+            output[index] = lineArgb[palette];
+        } else if (outputBuffer != null) {
+            outputBuffer.put(index, lineArgb[palette]);
+        }
+    }
+
+    // endregion
+
+    private int priority(int bgPalette, int fgPalette, boolean fgPriority) {
+        if (fgPalette == 0) return bgPalette;
+        if (bgPalette == 0) return fgPalette;
+        return fgPriority ? fgPalette : bgPalette;
+    }
+
+    public byte cpuRead(int address) {
+        int register = address & 0x07;
+
+        return switch (register) {
+            case 2 -> readPpuStatus();
+            case 4 -> oam[oamAddr];
+            case 7 -> readPpuData();
+            default -> throw new IllegalArgumentException("Invalid register: " + (register));
+        };
+    }
+
+    private byte readPpuStatus() {
+        byte result = (byte) status();
+        latch = false;
+        verticalBlank(false);
+        return result;
+    }
+
+    private byte ppuDataBuffer;
+
+    private byte readPpuData() {
+        byte result = ppuDataBuffer;
+        ppuDataBuffer = bus.read(v);
+        v += addressIncrement();
+        return v >= 0x3F00 ? ppuDataBuffer : result;
+    }
+
+    public void cpuWrite(int address, byte data) {
+        int register = address & 0x07;
+        int value = Byte.toUnsignedInt(data);
+
+        switch (register) {
+            case 0 -> {
+                ppuCtrl = value;
+                tempNameTable(value & 0x03);
+            }
+            case 1 -> ppuMask = value;
+            case 2 -> {
+            }
+            case 3 -> oamAddr = value;
+            case 4 -> {
+                // OAM DMA writes through here as well
+                oam[oamAddr] = data;
+                oamDirty = true;
+                oamAddr = (oamAddr + 1) & 0xFF;
+            }
+            case 5 -> writePpuScroll(data);
+            case 6 -> writePpuAddr(data);
+            case 7 -> {
+                bus.write(v, data);
+                v += addressIncrement();
+            }
+            default ->
+                throw new UnsupportedOperationException("Writing to PPU " + Util.hex4(address) + ": " + Util.hex2(data));
+        }
+    }
+
+    private void writePpuScroll(byte value) {
+        int data = Byte.toUnsignedInt(value);
+        if (!latch) {
+            x = data & 0x07;
+            t = t & 0x7FE0 | (data >>> 3);
+        } else {
+            t = t & 0x0C1F | (data & 0x07) << 12 | data >>> 3 << 5;
+        }
+        latch = !latch;
+    }
+
+    private void writePpuAddr(byte value) {
+        if (!latch) {
+            t = (t & 0x00FF) | ((value & 0x3F) << 8);
+        } else {
+            t = (t & 0x7F00) | (value & 0xFF);
+            v = t;
+        }
+        latch = !latch;
+    }
+
+    /**
+     * Also writes every pixel as ARGB into the given array, with color emphasis applied. Pass null to stop.
+     */
+    public void setOutput(int[] output) {
+        if (output != null && output.length < frame.length) {
+            throw new IllegalArgumentException("Output needs room for " + frame.length + " pixels");
+        }
+        this.output = output;
+        this.outputBuffer = null;
+    }
+
+    /**
+     * The same as {@link #setOutput(int[])}, for buffers that aren't backed by an array, like direct ones.
+     * Writes go to absolute indices.
+     */
+    public void setOutput(IntBuffer output) {
+        if (output != null && output.capacity() < frame.length) {
+            throw new IllegalArgumentException("Output needs room for " + frame.length + " pixels");
+        }
+        this.output = null;
+        this.outputBuffer = output;
+    }
+
+    /**
+     * Turns drawing pixels on or off, for frames nobody will see or headless runs. Without drawing, the PPU only
+     * runs what the CPU can observe: vertical blank, NMI, sprite zero hit, sprite overflow, and v and t.
+     * Pixels are only composed where sprite zero is, and whole lines where it can't hit skip their tile fetches.
+     */
+    public void setDrawing(boolean drawing) {
+        this.drawing = drawing;
+    }
+
+    public boolean isDrawing() {
+        return drawing;
+    }
+
+    /**
+     * The palette indices of the frame so far, without copying them. Callers must not change them.
+     */
+    public byte[] frame() {
+        return frame;
+    }
+
+    public void draw(byte[] screen) {
+        System.arraycopy(frame, 0, screen, 0, screen.length);
+    }
+
+    public void reset() {
+    }
+
+    // region State
+
+    /**
+     * Saves everything that affects what comes next. The frame so far and the caches are not part of it,
+     * the sprite buckets and the sprites of the current line are rebuilt on load.
+     */
+    void save(ByteBuffer out) {
+        out.put(oam);
+        out.put((byte) ((latch ? 1 : 0) | (frameIsOdd ? 2 : 0) | (nmi ? 4 : 0)));
+        out.put((byte) ppuCtrl).put((byte) ppuMask).put((byte) ppuStatus).put((byte) oamAddr);
+        out.putShort((short) row).putShort((short) col);
+        out.putShort((short) v).putShort((short) t).put((byte) x);
+        out.put(spriteScanline);
+        for (int i = 0; i < 8; i++) {
+            out.putShort((short) spritePixels[i]).put((byte) spriteIds[i]);
+        }
+        out.put((byte) bgNextId).put((byte) bgNextAttr).putShort((short) bgNextPattern);
+        out.putInt(bgShifter).putInt(bgAttrShifter);
+        out.put(ppuDataBuffer);
+    }
+
+    void load(ByteBuffer in) {
+        in.get(oam);
+        int flags = in.get();
+        latch = (flags & 1) != 0;
+        frameIsOdd = (flags & 2) != 0;
+        nmi = (flags & 4) != 0;
+        ppuCtrl = Byte.toUnsignedInt(in.get());
+        ppuMask = Byte.toUnsignedInt(in.get());
+        ppuStatus = Byte.toUnsignedInt(in.get());
+        oamAddr = Byte.toUnsignedInt(in.get());
+        row = in.getShort();
+        col = in.getShort();
+        v = Short.toUnsignedInt(in.getShort());
+        t = Short.toUnsignedInt(in.getShort());
+        x = Byte.toUnsignedInt(in.get());
+        in.get(spriteScanline);
+        for (int i = 0; i < 8; i++) {
+            spritePixels[i] = Short.toUnsignedInt(in.getShort());
+            spriteIds[i] = Byte.toUnsignedInt(in.get());
+        }
+        bgNextId = Byte.toUnsignedInt(in.get());
+        bgNextAttr = Byte.toUnsignedInt(in.get());
+        bgNextPattern = Short.toUnsignedInt(in.getShort());
+        bgShifter = in.getInt();
+        bgAttrShifter = in.getInt();
+        ppuDataBuffer = in.get();
+
+        fillLineSprites();
+        oamDirty = true;
+    }
+
+    // endregion
+
+    /**
+     * Reads a row of pixels from the pattern tables, through the cache where possible.
+     */
+    private int patternRow(int address, boolean flipped) {
+        // Empty sprite slots can point anywhere, even past the pattern tables
+        if ((address & ~0x1FF7) != 0) {
+            int lsb = read(address);
+            int msb = read(address + 8);
+            return flipped ? Util.interleaveFlipped(lsb, msb) : Util.interleave(lsb, msb);
+        }
+        return bus.patternRow(address, flipped);
+    }
+
+    private int read(int address) {
+        return Byte.toUnsignedInt(bus.read(address));
+    }
+}
@@ -1,5 +1,7 @@
 package be.twofold.tinynes;
 
+import java.nio.*;
+
 public final class PpuBus implements Bus {
 
     final byte[] nameTable = new byte[0x800];
@@ -29,6 +31,10 @@ public final class PpuBus implements Bus {
         throw new IllegalArgumentException("Illegal PPU read: $" + Integer.toHexString(address));
     }
 
+    int patternRow(int address, boolean flipped) {
+        return cartridge.patternRow(address, flipped);
+    }
+
     @Override
     public void write(int address, byte value) {
         assert address >= 0x0000;
@@ -51,6 +57,14 @@ public final class PpuBus implements Bus {
         throw new IllegalArgumentException("Illegal PPU write: $" + Integer.toHexString(address));
     }
 
+    void save(ByteBuffer out) {
+        out.put(nameTable).put(palette);
+    }
+
+    void load(ByteBuffer in) {
+        in.get(nameTable).get(palette);
+    }
+
     private int nameTableAddress(int address) {
         return switch (cartridge.getMirroringMode()) {
             case VERTICAL -> address & 0x7FF;
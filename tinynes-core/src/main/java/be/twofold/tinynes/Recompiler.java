@@ -0,0 +1,547 @@
+package be.twofold.tinynes;
+
+import java.lang.invoke.*;
+import java.nio.charset.*;
+import java.util.*;
+
+/**
+ * Translates basic blocks in PRG ROM into hidden classes that call the {@link Cpu} handlers directly,
+ * with every operand already decoded. Blocks are cached by 16K window and offset in PRG ROM, so they stay
+ * valid when the mapper switches banks, and only the bank of each window is looked up again. Code in RAM,
+ * and instructions that touch I/O or the mapper, are left to the interpreter.
+ */
+final class Recompiler {
+
+    /**
+     * Below this budget, entering a block costs more than interpreting.
+     */
+    static final int MinBudget = 16;
+    private static final int DefaultThreshold = 256;
+    private static final int MaxInstructions = 64;
+
+    private static final String[] Decoder = {
+        "brk imp", "ora izx", "jam imp", "slo izx", "nop zp0", "ora zp0", "asl zp0", "slo zp0",
+        "php imp", "ora imm", "asla imp", "anc imm", "nop abs", "ora abs", "asl abs", "slo abs",
+        "bpl rel", "ora izy", "jam imp", "slo izy_", "nop zpx", "ora zpx", "asl zpx", "slo zpx",
+        "clc imp", "ora aby", "nop imp", "slo aby_", "nop abx", "ora abx", "asl abx_", "slo abx_",
+        "jsr abs", "and izx", "jam imp", "rla izx", "bit zp0", "and zp0", "rol zp0", "rla zp0",
+        "plp imp", "and imm", "rola imp", "anc imm", "bit abs", "and abs", "rol abs", "rla abs",
+        "bmi rel", "and izy", "jam imp", "rla izy_", "nop zpx", "and zpx", "rol zpx", "rla zpx",
+        "sec imp", "and aby", "nop imp", "rla aby_", "nop abx", "and abx", "rol abx_", "rla abx_",
+        "rti imp", "eor izx", "jam imp", "sre izx", "nop zp0", "eor zp0", "lsr zp0", "sre zp0",
+        "pha imp", "eor imm", "lsra imp", "alr imm", "jmp abs", "eor abs", "lsr abs", "sre abs",
+        "bvc rel", "eor izy", "jam imp", "sre izy_", "nop zpx", "eor zpx", "lsr zpx", "sre zpx",
+        "cli imp", "eor aby", "nop imp", "sre aby_", "nop abx", "eor abx", "lsr abx_", "sre abx_",
+        "rts imp", "adc izx", "jam imp", "rra izx", "nop zp0", "adc zp0", "ror zp0", "rra zp0",
+        "pla imp", "adc imm", "rora imp", "arr imm", "jmp ind", "adc abs", "ror abs", "rra abs",
+        "bvs rel", "adc izy", "jam imp", "rra izy_", "nop zpx", "adc zpx", "ror zpx", "rra zpx",
+        "sei imp", "adc aby", "nop imp", "rra aby_", "nop abx", "adc abx", "ror abx_", "rra abx_",
+        "nop imm", "sta izx", "nop imm", "sax izx", "sty zp0", "sta zp0", "stx zp0", "sax zp0",
+        "dey imp", "nop imm", "txa imp", "xaa imm", "sty abs", "sta abs", "stx abs", "sax abs",
+        "bcc rel", "sta izy_", "jam imp", "sha izy_", "sty zpx", "sta zpx", "stx zpy", "sax zpy",
+        "tya imp", "sta aby_", "txs imp", "tas aby_", "shy abx_", "sta abx_", "shx aby_", "sha aby_",
+        "ldy imm", "lda izx", "ldx imm", "lax izx", "ldy zp0", "lda zp0", "ldx zp0", "lax zp0",
+        "tay imp", "lda imm", "tax imp", "lxa imm", "ldy abs", "lda abs", "ldx abs", "lax abs",
+        "bcs rel", "lda izy", "jam imp", "lax izy", "ldy zpx", "lda zpx", "ldx zpy", "lax zpy",
+        "clv imp", "lda aby", "tsx imp", "las aby", "ldy abx", "lda abx", "ldx aby", "lax aby",
+        "cpy imm", "cmp izx", "nop imm", "dcp izx", "cpy zp0", "cmp zp0", "dec zp0", "dcp zp0",
+        "iny imp", "cmp imm", "dex imp", "axs imm", "cpy abs", "cmp abs", "dec abs", "dcp abs",
+        "bne rel", "cmp izy", "jam imp", "dcp izy_", "nop zpx", "cmp zpx", "dec zpx", "dcp zpx",
+        "cld imp", "cmp aby", "nop imp", "dcp aby_", "nop abx", "cmp abx", "dec abx_", "dcp abx_",
+        "cpx imm", "sbc izx", "nop imm", "isc izx", "cpx zp0", "sbc zp0", "inc zp0", "isc zp0",
+        "inx imp", "sbc imm", "nop imp", "sbc imm", "cpx abs", "sbc abs", "inc abs", "isc abs",
+        "beq rel", "sbc izy", "jam imp", "isc izy_", "nop zpx", "sbc zpx", "inc zpx", "isc zpx",
+        "sed imp", "sbc aby", "nop imp", "isc aby_", "nop abx", "sbc abx", "inc abx_", "isc abx_",
+    };
+
+    private static final Set<String> Writes = Set.of(
+        "sta", "stx", "sty", "sax", "sha", "shx", "shy", "tas",
+        "asl", "lsr", "rol", "ror", "inc", "dec", "slo", "rla", "sre", "rra", "dcp", "isc"
+    );
+
+    private static final Set<String> Jumps = Set.of(
+        "brk", "jmp", "jsr", "rti", "rts", "bcc", "bcs", "beq", "bmi", "bne", "bpl", "bvc", "bvs"
+    );
+
+    private final Cartridge cartridge;
+    private final MethodHandles.Lookup lookup;
+    private final int threshold;
+    private final Block[] blocks;
+    private final int[] hits;
+    private final int[] windows = new int[2];
+    private int generation = -1;
+
+    Recompiler(Cartridge cartridge) {
+        this(cartridge, DefaultThreshold);
+    }
+
+    /**
+     * @param threshold The number of times a block has to be entered before it gets compiled
+     */
+    Recompiler(Cartridge cartridge, int threshold) {
+        this.cartridge = cartridge;
+        this.lookup = Cpu.lookup();
+        this.threshold = threshold;
+        this.blocks = new Block[cartridge.prgSize() * 2];
+        this.hits = new int[cartridge.prgSize() * 2];
+    }
+
+    /**
+     * Returns the compiled block starting at the given address, or {@code null} if the interpreter should run it.
+     */
+    Block lookup(int address) {
+        if (address < 0x8000) {
+            return null;
+        }
+
+        // Only go to the mapper when its banks actually changed
+        if (generation != cartridge.prgGeneration()) {
+            generation = cartridge.prgGeneration();
+            windows[0] = cartridge.prgOffset(0x8000);
+            windows[1] = cartridge.prgOffset(0xC000);
+        }
+
+        // Blocks have their addresses baked in, so a bank that is visible in both windows gets a block for each
+        int window = (address >>> 14) & 1;
+        int offset = (windows[window] + (address & 0x3FFF)) << 1 | window;
+        Block block = blocks[offset];
+        if (block != null) {
+            return block;
+        }
+
+        // A negative count marks code that can't be compiled
+        int count = hits[offset];
+        if (count < threshold) {
+            if (count >= 0) {
+                hits[offset] = count + 1;
+            }
+            return null;
+        }
+
+        block = compile(address);
+        if (block == null) {
+            hits[offset] = -1;
+            return null;
+        }
+        blocks[offset] = block;
+        return block;
+    }
+
+    // region Decoding
+
+    private Block compile(int start) {
+        List<Instruction> instructions = new ArrayList<>();
+        int address = start;
+        while (instructions.size() < MaxInstructions) {
+            int opcode = read(address);
+            String operation = operation(opcode);
+            String mode = mode(opcode);
+
+            // Stay within one 16K window, as that is the unit mappers switch
+            int length = length(mode);
+            if (((address + length - 1) & 0xC000) != (start & 0xC000)) {
+                break;
+            }
+
+            int operand = switch (length) {
+                case 2 -> read(address + 1);
+                case 3 -> read(address + 1) | read(address + 2) << 8;
+                default -> 0;
+            };
+            if (!compilable(operation, mode, operand)) {
+                break;
+            }
+
+            instructions.add(new Instruction(address, opcode, operand));
+            address += length;
+            if (Jumps.contains(operation)) {
+                break;
+            }
+        }
+
+        if (instructions.isEmpty()) {
+            return null;
+        }
+        return define(new BlockWriter().write(instructions));
+    }
+
+    /**
+     * Compiles a single instruction, without checking if it's safe to, so every opcode can be compared with the
+     * interpreter.
+     */
+    Block compile(int address, int opcode, int operand) {
+        return define(new BlockWriter().write(List.of(new Instruction(address, opcode, operand))));
+    }
+
+    private boolean compilable(String operation, String mode, int operand) {
+        if (operation.equals("jam")) {
+            return false;
+        }
+
+        int first;
+        int last;
+        switch (mode) {
+            case "imp", "imm", "rel", "zp0", "zpx", "zpy" -> {
+                return true;
+            }
+            case "abs" -> {
+                if (operation.equals("jmp") || operation.equals("jsr")) {
+                    return true;
+                }
+                first = last = operand;
+            }
+            case "ind" -> {
+                first = operand;
+                last = operand + 1;
+            }
+            case "abx", "abx_", "aby", "aby_" -> {
+                first = operand;
+                last = operand + 0xFF;
+            }
+            default -> {
+                // Indirect indexed, the address is only known at runtime
+                return !Writes.contains(operation);
+            }
+        }
+
+        if (last >= 0x2000 && first <= 0x401F) {
+            return false;
+        }
+        if (Writes.contains(operation)) {
+            return last <= 0x1FFF || (first >= 0x6000 && last <= 0x7FFF);
+        }
+        return true;
+    }
+
+    private int read(int address) {
+        return Byte.toUnsignedInt(cartridge.cpuRead(address));
+    }
+
+    static String operation(int opcode) {
+        String decoded = Decoder[opcode];
+        return decoded.substring(0, decoded.indexOf(' '));
+    }
+
+    static String mode(int opcode) {
+        String decoded = Decoder[opcode];
+        return decoded.substring(decoded.indexOf(' ') + 1);
+    }
+
+    static int length(String mode) {
+        return switch (mode) {
+            case "imp" -> 1;
+            case "abs", "abx", "abx_", "aby", "aby_", "ind" -> 3;
+            default -> 2;
+        };
+    }
+
+    // endregion
+
+    private Block define(byte[] bytes) {
+        try {
+            MethodHandles.Lookup hidden = lookup.defineHiddenClass(bytes, true, MethodHandles.Lookup.ClassOption.NESTMATE);
+            return (Block) hidden.findConstructor(hidden.lookupClass(), MethodType.methodType(void.class)).invoke();
+        } catch (Throwable e) {
+            throw new IllegalStateException("Could not define compiled block", e);
+        }
+    }
+
+    interface Block {
+        /**
+         * Runs instructions until the block ends or the budget is used up.
+         *
+         * @return The number of cycles consumed
+         */
+        int run(Cpu cpu, int budget);
+    }
+
+    private record Instruction(int address, int opcode, int operand) {
+    }
+
+    /**
+     * Writes a class file with a single method, which calls the handler of every instruction in turn.
+     * <p>
+     * The generated code for each instruction looks like this:
+     * <pre>
+     * cpu.begin(pcAfterInstruction, opcode);
+     * cpu.operation(cpu.mode(operand));
+     * consumed += cpu.retire();
+     * if (consumed >= budget) return consumed;
+     * </pre>
+     */
+    private static final class BlockWriter {
+        private static final String CpuClass = "be/twofold/tinynes/Cpu";
+
+        private final Map<String, Integer> entries = new HashMap<>();
+        private final Bytes pool = new Bytes();
+        private final Bytes code = new Bytes();
+        private int poolCount = 1;
+
+        byte[] write(List<Instruction> instructions) {
+            List<Integer> exits = new ArrayList<>();
+
+            code.u1(0x03); // iconst_0
+            code.u1(0x3E); // istore_3
+            for (int i = 0; i < instructions.size(); i++) {
+                Instruction instruction = instructions.get(i);
+                String mode = mode(instruction.opcode());
+                int pc = (instruction.address() + length(mode)) & 0xFFFF;
+
+                code.u1(0x2B); // aload_1
+                push(pc);
+                push(instruction.opcode());
+                invoke("begin", "(II)V");
+
+                call(instruction, mode);
+
+                code.u1(0x1D); // iload_3
+                code.u1(0x2B); // aload_1
+                invoke("retire", "()I");
+                code.u1(0x60); // iadd
+                code.u1(0x3E); // istore_3
+
+                if (i < instructions.size() - 1) {
+                    code.u1(0x1D); // iload_3
+                    code.u1(0x1C); // iload_2
+                    exits.add(code.size());
+                    code.u1(0xA2); // if_icmpge
+                    code.u2(0);
+                }
+            }
+
+            int exit = code.size();
+            code.u1(0x1D); // iload_3
+            code.u1(0xAC); // ireturn
+            for (int branch : exits) {
+                code.patchU2(branch + 1, exit - branch);
+            }
+
+            return classFile();
+        }
+
+        private void call(Instruction instruction, String mode) {
+            String operation = Recompiler.operation(instruction.opcode());
+            int operand = instruction.operand();
+
+            if (operation.equals("nop")) {
+                // Only the page crossing penalty is observable
+                if (mode.equals("abx") || mode.equals("aby")) {
+                    code.u1(0x2B); // aload_1
+                    push(operand);
+                    invoke(mode, "(I)I");
+                    code.u1(0x57); // pop
+                }
+                return;
+            }
+
+            code.u1(0x2B); // aload_1
+            switch (mode) {
+                case "imp" -> {
+                    invoke(operation, "()V");
+                    return;
+                }
+                case "imm" -> push(instruction.address() + 1);
+                case "rel" -> push(instruction.address() + 2 + (byte) operand);
+                case "zp0", "abs" -> push(operand);
+                default -> {
+                    code.u1(0x2B); // aload_1
+                    push(operand);
+                    invoke(mode, "(I)I");
+                }
+            }
+            invoke(operation, "(I)V");
+        }
+
+        private void push(int value) {
+            if (value >= -1 && value <= 5) {
+                code.u1(0x03 + value); // iconst_<n>
+            } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+                code.u1(0x10); // bipush
+                code.u1(value);
+            } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+                code.u1(0x11); // sipush
+                code.u2(value);
+            } else {
+                code.u1(0x13); // ldc_w
+                code.u2(integer(value));
+            }
+        }
+
+        private void invoke(String name, String descriptor) {
+            code.u1(0xB6); // invokevirtual
+            code.u2(methodRef(CpuClass, name, descriptor));
+        }
+
+        private byte[] classFile() {
+            int thisClass = classRef("be/twofold/tinynes/CompiledBlock");
+            int superClass = classRef("java/lang/Object");
+            int blockClass = classRef("be/twofold/tinynes/Recompiler$Block");
+            int objectInit = methodRef("java/lang/Object", "<init>", "()V");
+            int codeName = utf8("Code");
+            int stackMapName = utf8("StackMapTable");
+            int initName = utf8("<init>");
+            int initDescriptor = utf8("()V");
+            int runName = utf8("run");
+            int runDescriptor = utf8("(L" + CpuClass + ";I)I");
+
+            Bytes out = new Bytes();
+            out.u4(0xCAFEBABE);
+            out.u2(0);
+            out.u2(61);
+            out.u2(poolCount);
+            out.bytes(pool);
+            out.u2(0x0030); // ACC_FINAL | ACC_SUPER
+            out.u2(thisClass);
+            out.u2(superClass);
+            out.u2(1);
+            out.u2(blockClass);
+            out.u2(0); // fields
+
+            out.u2(2); // methods
+
+            out.u2(0x0001); // ACC_PUBLIC
+            out.u2(initName);
+            out.u2(initDescriptor);
+            out.u2(1);
+            out.u2(codeName);
+            out.u4(17);
+            out.u2(1); // max_stack
+            out.u2(1); // max_locals
+            out.u4(5);
+            out.u1(0x2A); // aload_0
+            out.u1(0xB7); // invokespecial
+            out.u2(objectInit);
+            out.u1(0xB1); // return
+            out.u2(0);
+            out.u2(0);
+
+            // The exit is the only branch target, which adds the consumed cycles to the locals
+            Bytes stackMap = new Bytes();
+            stackMap.u2(1);
+            stackMap.u1(252); // append_frame
+            stackMap.u2(code.size() - 2);
+            stackMap.u1(1); // ITEM_Integer
+
+            out.u2(0x0001); // ACC_PUBLIC
+            out.u2(runName);
+            out.u2(runDescriptor);
+            out.u2(1);
+            out.u2(codeName);
+            out.u4(12 + code.size() + 6 + stackMap.size());
+            out.u2(3); // max_stack
+            out.u2(4); // max_locals
+            out.u4(code.size());
+            out.bytes(code);
+            out.u2(0);
+            out.u2(1);
+            out.u2(stackMapName);
+            out.u4(stackMap.size());
+            out.bytes(stackMap);
+
+            out.u2(0); // attributes
+            return out.toByteArray();
+        }
+
+        // region Constant Pool
+
+        private int utf8(String value) {
+            return entry("U" + value, () -> {
+                byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+                pool.u1(1);
+                pool.u2(bytes.length);
+                pool.bytes(bytes);
+            });
+        }
+
+        private int integer(int value) {
+            return entry("I" + value, () -> {
+                pool.u1(3);
+                pool.u4(value);
+            });
+        }
+
+        private int classRef(String name) {
+            int nameIndex = utf8(name);
+            return entry("C" + name, () -> {
+                pool.u1(7);
+                pool.u2(nameIndex);
+            });
+        }
+
+        private int methodRef(String owner, String name, String descriptor) {
+            int classIndex = classRef(owner);
+            int nameIndex = utf8(name);
+            int descriptorIndex = utf8(descriptor);
+            int nameAndType = entry("N" + name + descriptor, () -> {
+                pool.u1(12);
+                pool.u2(nameIndex);
+                pool.u2(descriptorIndex);
+            });
+            return entry("M" + owner + "." + name + descriptor, () -> {
+                pool.u1(10);
+                pool.u2(classIndex);
+                pool.u2(nameAndType);
+            });
+        }
+
+        private int entry(String key, Runnable writer) {
+            Integer index = entries.get(key);
+            if (index != null) {
+                return index;
+            }
+            writer.run();
+            entries.put(key, poolCount);
+            return poolCount++;
+        }
+
+        // endregion
+    }
+
+    private static final class Bytes {
+        private byte[] bytes = new byte[256];
+        private int size;
+
+        void u1(int value) {
+            if (size == bytes.length) {
+                bytes = Arrays.copyOf(bytes, size * 2);
+            }
+            bytes[size++] = (byte) value;
+        }
+
+        void u2(int value) {
+            u1(value >>> 8);
+            u1(value);
+        }
+
+        void u4(int value) {
+            u2(value >>> 16);
+            u2(value);
+        }
+
+        void bytes(byte[] values) {
+            for (byte value : values) {
+                u1(value);
+            }
+        }
+
+        void bytes(Bytes other) {
+            for (int i = 0; i < other.size; i++) {
+                u1(other.bytes[i]);
+            }
+        }
+
+        void patchU2(int offset, int value) {
+            bytes[offset] = (byte) (value >>> 8);
+            bytes[offset + 1] = (byte) value;
+        }
+
+        int size() {
+            return size;
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(bytes, size);
+        }
+    }
+
+}
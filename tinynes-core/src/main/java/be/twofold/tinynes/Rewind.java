@@ -0,0 +1,284 @@
+package be.twofold.tinynes;
+
+import java.nio.*;
+import java.util.*;
+
+/**
+ * Keeps the state of recent frames in memory, so the game can run backwards.
+ * <p>
+ * Every {@value #KeyframeInterval} frames, a keyframe is stored whole. The frames in between only store how they
+ * differ from their keyframe, as runs of XOR-ed bytes. Between frames, only RAM, the PPU memory and a few registers
+ * change, so most frames take a few hundred bytes. Everything goes in one ring of a fixed size, where the oldest
+ * keyframe and its frames make room for new ones.
+ */
+public final class Rewind {
+    private static final int KeyframeInterval = 60;
+
+    // Equal bytes between two differences that are cheaper to store than to start a new run
+    private static final int MinEqualRun = 4;
+
+    private final Nes nes;
+    private final byte[] ring;
+    private final byte[] state;
+    private final ByteBuffer stateBuffer;
+    private final byte[] zeros;
+    private final byte[] keyframe;
+    private final byte[] encoded;
+    private long keyframeFrame = -1;
+    private int head;
+    private int cursor;
+
+    // Snapshots by frame number, from first up to next, in power of two sized circular arrays
+    private int[] offsets = new int[256];
+    private int[] lengths = new int[256];
+    private long[] keyframes = new long[256];
+    private long first;
+    private long next;
+
+    /**
+     * @param nes      The machine to capture
+     * @param capacity The number of bytes to use for snapshots
+     */
+    public Rewind(Nes nes, int capacity) {
+        int size = nes.stateSize();
+        if (capacity < maxEncodedSize(size)) {
+            throw new IllegalArgumentException("Capacity is too small for a single keyframe: " + capacity);
+        }
+        this.nes = nes;
+        this.ring = new byte[capacity];
+        this.state = new byte[size];
+        this.stateBuffer = ByteBuffer.wrap(state);
+        this.zeros = new byte[size];
+        this.keyframe = new byte[size];
+        this.encoded = new byte[maxEncodedSize(size)];
+    }
+
+    /**
+     * The number of frames that can be rewound to.
+     */
+    public int frames() {
+        return (int) (next - first);
+    }
+
+    /**
+     * The number of bytes the snapshots take up in the ring.
+     */
+    public int bytesUsed() {
+        int result = 0;
+        for (long frame = first; frame < next; frame++) {
+            result += lengths[index(frame)];
+        }
+        return result;
+    }
+
+    /**
+     * Stores the current state as the newest frame, which is meant to be called after every frame.
+     */
+    public void capture() {
+        stateBuffer.clear();
+        nes.saveState(stateBuffer);
+
+        long key = next > first ? keyframes[index(next - 1)] : next;
+        if (next - key >= KeyframeInterval) {
+            key = next;
+        }
+        if (key != next) {
+            loadKeyframe(key);
+        }
+
+        int length = encode(key == next ? zeros : keyframe);
+        int offset = reserve(length);
+        if (key < first) {
+            // Making room dropped the keyframe this frame depends on, so it becomes one itself
+            key = next;
+            length = encode(zeros);
+            offset = reserve(length);
+        }
+        System.arraycopy(encoded, 0, ring, offset, length);
+        head = offset + length;
+
+        if (next == (first + offsets.length)) {
+            grow();
+        }
+        int index = index(next);
+        offsets[index] = offset;
+        lengths[index] = length;
+        keyframes[index] = key;
+        if (key == next) {
+            System.arraycopy(state, 0, keyframe, 0, state.length);
+            keyframeFrame = key;
+        }
+        next++;
+    }
+
+    /**
+     * Drops the newest frame and loads the one before it.
+     *
+     * @return If there was a frame to go back to
+     */
+    public boolean rewind() {
+        if (next - first < 2) {
+            return false;
+        }
+        next--;
+        head = offsets[index(next)];
+
+        long frame = next - 1;
+        long key = keyframes[index(frame)];
+        loadKeyframe(key);
+        System.arraycopy(keyframe, 0, state, 0, state.length);
+        if (frame != key) {
+            decode(frame, state);
+        }
+        stateBuffer.clear();
+        nes.loadState(stateBuffer);
+        return true;
+    }
+
+    public void clear() {
+        first = next = 0;
+        head = 0;
+        keyframeFrame = -1;
+    }
+
+    private void loadKeyframe(long key) {
+        if (keyframeFrame != key) {
+            Arrays.fill(keyframe, (byte) 0);
+            decode(key, keyframe);
+            keyframeFrame = key;
+        }
+    }
+
+    // region Ring
+
+    /**
+     * Finds room for a snapshot after the newest, dropping the oldest keyframes until it fits.
+     */
+    private int reserve(int length) {
+        if (first == next) {
+            head = 0;
+        }
+        int offset = head;
+        if (offset + length > ring.length) {
+            // Whatever is left at the end of the ring is older than what's at the start
+            while (first < next && offsets[index(first)] >= head) {
+                dropOldest();
+            }
+            offset = 0;
+        }
+        while (first < next && overlaps(first, offset, length)) {
+            dropOldest();
+        }
+        return offset;
+    }
+
+    private boolean overlaps(long frame, int offset, int length) {
+        int index = index(frame);
+        return offsets[index] < offset + length && offset < offsets[index] + lengths[index];
+    }
+
+    /**
+     * Drops the oldest keyframe, with all the frames that depend on it.
+     */
+    private void dropOldest() {
+        do {
+            first++;
+        } while (first < next && keyframes[index(first)] != first);
+    }
+
+    private void grow() {
+        int capacity = offsets.length * 2;
+        int[] newOffsets = new int[capacity];
+        int[] newLengths = new int[capacity];
+        long[] newKeyframes = new long[capacity];
+        for (long frame = first; frame < next; frame++) {
+            int index = (int) (frame & (capacity - 1));
+            newOffsets[index] = offsets[index(frame)];
+            newLengths[index] = lengths[index(frame)];
+            newKeyframes[index] = keyframes[index(frame)];
+        }
+        offsets = newOffsets;
+        lengths = newLengths;
+        keyframes = newKeyframes;
+    }
+
+    private int index(long frame) {
+        return (int) (frame & (offsets.length - 1));
+    }
+
+    // endregion
+
+    // region Encoding
+
+    // A snapshot is a list of runs: the number of equal bytes to skip, the number of bytes that differ,
+    // and those bytes XOR-ed with the reference. Equal bytes at the end are left out.
+
+    private static int maxEncodedSize(int size) {
+        // At worst, every run of 1 byte is followed by MinEqualRun equal bytes, and takes 3 bytes to store
+        return size + size / 2 + 16;
+    }
+
+    private int encode(byte[] reference) {
+        int length = 0;
+        int n = state.length;
+        int i = 0;
+        while (true) {
+            int equal = Arrays.mismatch(state, i, n, reference, i, n);
+            if (equal < 0) {
+                return length;
+            }
+            int start = i + equal;
+            int end = start + 1;
+            while (end < n) {
+                int same = Arrays.mismatch(state, end, n, reference, end, n);
+                if (same < 0 || same >= MinEqualRun) {
+                    break;
+                }
+                end += same + 1;
+            }
+
+            length = putVarInt(length, start - i);
+            length = putVarInt(length, end - start);
+            for (int j = start; j < end; j++) {
+                encoded[length++] = (byte) (state[j] ^ reference[j]);
+            }
+            i = end;
+        }
+    }
+
+    private void decode(long frame, byte[] target) {
+        int index = index(frame);
+        cursor = offsets[index];
+        int end = cursor + lengths[index];
+        int i = 0;
+        while (cursor < end) {
+            i += getVarInt();
+            int count = getVarInt();
+            for (int j = 0; j < count; j++) {
+                target[i++] ^= ring[cursor++];
+            }
+        }
+    }
+
+    private int putVarInt(int position, int value) {
+        while (value >= 0x80) {
+            encoded[position++] = (byte) (value | 0x80);
+            value >>>= 7;
+        }
+        encoded[position++] = (byte) value;
+        return position;
+    }
+
+    private int getVarInt() {
+        int result = 0;
+        for (int shift = 0; ; shift += 7) {
+            int b = ring[cursor++];
+            result |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return result;
+            }
+        }
+    }
+
+    // endregion
+}
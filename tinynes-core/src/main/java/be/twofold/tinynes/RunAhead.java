@@ -0,0 +1,60 @@
+package be.twofold.tinynes;
+
+import java.nio.*;
+
+/**
+ * Hides the input lag games have built in, by showing frames from the future.
+ * <p>
+ * Every frame, the real frame runs without being drawn, and its state is saved. Then the machine runs a few frames
+ * ahead with the same input, draws the last one, and goes back to the saved state. A game that takes a frame or two
+ * to react to input shows the reaction right away, at the cost of running those frames every time.
+ */
+public final class RunAhead {
+    private final Nes nes;
+    private final ByteBuffer state;
+    private int frames;
+
+    public RunAhead(Nes nes) {
+        this.nes = nes;
+        this.state = ByteBuffer.allocate(nes.stateSize());
+    }
+
+    public int getFrames() {
+        return frames;
+    }
+
+    /**
+     * Sets the number of frames to run ahead, where 0 runs normally.
+     */
+    public void setFrames(int frames) {
+        if (frames < 0) {
+            throw new IllegalArgumentException("Frames must not be negative: " + frames);
+        }
+        this.frames = frames;
+    }
+
+    /**
+     * Runs a frame, leaving the picture of the frame that is the furthest ahead.
+     * Only that frame is drawn, and only if the PPU is drawing at all.
+     */
+    public void runFrame() {
+        if (frames == 0) {
+            nes.runFrame();
+            return;
+        }
+
+        Ppu ppu = nes.ppu();
+        boolean drawing = ppu.isDrawing();
+        ppu.setDrawing(false);
+        nes.runFrame();
+        state.clear();
+        nes.saveState(state);
+
+        for (int i = 1; i < frames; i++) {
+            nes.runFrame();
+        }
+        ppu.setDrawing(drawing);
+        nes.runFrame();
+        nes.loadState(state.flip());
+    }
+}
@@ -0,0 +1,65 @@
+package be.twofold.tinynes;
+
+import java.util.*;
+
+/**
+ * Timestamped events on the master clock, which counts PPU dots.
+ * <p>
+ * Every kind of event is pending at most once, and there are only a handful of them,
+ * so the queue is an array of times indexed by kind, and the earliest one is found with a scan.
+ * Events due at the same time come out in declaration order.
+ */
+final class Scheduler {
+    static final long Never = Long.MAX_VALUE;
+
+    enum Event {
+        /**
+         * OAM DMA takes over the bus, the CPU resumes when the transfer ends.
+         */
+        DMA,
+        SCANLINE,
+        VERTICAL_BLANK,
+        FRAME_END,
+    }
+
+    private static final Event[] Events = Event.values();
+
+    private final long[] times = new long[Events.length];
+
+    Scheduler() {
+        clear();
+    }
+
+    void schedule(Event event, long time) {
+        times[event.ordinal()] = time;
+    }
+
+    void cancel(Event event) {
+        times[event.ordinal()] = Never;
+    }
+
+    long time(Event event) {
+        return times[event.ordinal()];
+    }
+
+    /**
+     * @return The event that is due first
+     */
+    Event next() {
+        int next = 0;
+        for (int i = 1; i < times.length; i++) {
+            if (times[i] < times[next]) {
+                next = i;
+            }
+        }
+        return Events[next];
+    }
+
+    long nextTime() {
+        return time(next());
+    }
+
+    void clear() {
+        Arrays.fill(times, Never);
+    }
+}
@@ -8,6 +8,22 @@ public final class Util {
         throw new UnsupportedOperationException();
     }
 
+    /**
+     * Interleaves two bitplanes into 2-bit pixels, with the leftmost pixel in the top bits.
+     */
+    public static int interleave(int lsb, int msb) {
+        long lsbI = ((lsb * 0x0101010101010101L & 0x8040201008040201L) * 0x0102040810204081L >> 49) & 0x5555;
+        long msbI = ((msb * 0x0101010101010101L & 0x8040201008040201L) * 0x0102040810204081L >> 48) & 0xAAAA;
+        return (int) (lsbI | msbI);
+    }
+
+    /**
+     * Same as {@link #interleave(int, int)}, but mirrored horizontally.
+     */
+    public static int interleaveFlipped(int lsb, int msb) {
+        return interleave(Integer.reverse(lsb) >>> 24, Integer.reverse(msb) >>> 24);
+    }
+
     public static String hex2(int value) {
         byte[] hex = {'$', '0', '0'};
         hex[1] = Hex[(value & 0xF0) >>> 4];
@@ -0,0 +1,5 @@
+module be.twofold.tinynes.core {
+
+    exports be.twofold.tinynes;
+
+}
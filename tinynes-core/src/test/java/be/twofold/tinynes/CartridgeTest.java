@@ -0,0 +1,36 @@
+package be.twofold.tinynes;
+
+import org.junit.jupiter.api.*;
+
+import static org.assertj.core.api.Assertions.*;
+
+class CartridgeTest {
+
+    @Test
+    void testPatternRowInterleavesPlanes() {
+        byte[] chr = new byte[0x2000];
+        chr[0x0013] = (byte) 0b1100_0001;
+        chr[0x001B] = (byte) 0b1010_0000;
+        Cartridge cartridge = create(chr);
+
+        assertThat(cartridge.patternRow(0x0013, false)).isEqualTo(0b11_01_10_00_00_00_00_01);
+        assertThat(cartridge.patternRow(0x0013, true)).isEqualTo(0b01_00_00_00_00_10_01_11);
+    }
+
+    @Test
+    void testChrRamWritesUpdatePatternRows() {
+        Cartridge cartridge = create(new byte[0]);
+        assertThat(cartridge.patternRow(0x1234, false)).isZero();
+
+        cartridge.ppuWrite(0x1234, (byte) 0x80);
+        cartridge.ppuWrite(0x123C, (byte) 0x01);
+
+        assertThat(cartridge.patternRow(0x1234, false)).isEqualTo(0b01_00_00_00_00_00_00_10);
+        assertThat(cartridge.patternRow(0x1234, true)).isEqualTo(0b10_00_00_00_00_00_00_01);
+    }
+
+    private static Cartridge create(byte[] chr) {
+        return new Cartridge(new Rom(0, new byte[0x4000], chr, MirroringMode.HORIZONTAL));
+    }
+
+}
@@ -0,0 +1,54 @@
+package be.twofold.tinynes;
+
+import org.junit.jupiter.api.*;
+
+import static org.assertj.core.api.Assertions.*;
+
+class CpuBusTest {
+
+    private final CpuBus bus = createBus();
+
+    @Test
+    void testRamIsMirrored() {
+        bus.write(0x0123, (byte) 0x42);
+
+        assertThat(bus.read(0x0923)).isEqualTo((byte) 0x42);
+        assertThat(bus.read(0x1923)).isEqualTo((byte) 0x42);
+    }
+
+    @Test
+    void testPrgRamIsWritable() {
+        bus.write(0x6123, (byte) 0x42);
+
+        assertThat(bus.read(0x6123)).isEqualTo((byte) 0x42);
+    }
+
+    @Test
+    void testSwitchingBankUpdatesMemoryMap() {
+        assertThat(bus.read(0x8000)).isEqualTo((byte) 0);
+        assertThat(bus.read(0xC000)).isEqualTo((byte) 7);
+
+        load(0xE000, 3);
+
+        assertThat(bus.read(0x8000)).isEqualTo((byte) 3);
+        assertThat(bus.read(0xBFFF)).isEqualTo((byte) 3);
+        assertThat(bus.read(0xC000)).isEqualTo((byte) 7);
+    }
+
+    private void load(int address, int value) {
+        for (int i = 0; i < 5; i++) {
+            bus.write(address, (byte) ((value >> i) & 0x01));
+        }
+    }
+
+    private static CpuBus createBus() {
+        // Every byte of a PRG bank holds the bank number
+        byte[] prg = new byte[8 * 0x4000];
+        for (int i = 0; i < prg.length; i++) {
+            prg[i] = (byte) (i / 0x4000);
+        }
+        Cartridge cartridge = new Cartridge(new Rom(1, prg, new byte[0], MirroringMode.HORIZONTAL));
+        return new CpuBus(cartridge, new Ppu(new PpuBus(cartridge)), new Apu());
+    }
+
+}
@@ -13,8 +13,44 @@ class CpuTest {
 
     @Test
     void testWithNesTest() {
+        runNesTest(load("/nestest.nes"));
+    }
+
+    @Test
+    void testWithNesTestBatch() {
         Nes nes = load("/nestest.nes");
-        nes.cpu().p = 0x04;
+        nes.setBatch(true);
+        runNesTest(nes);
+    }
+
+    @Test
+    void testWithNesTestRecompiled() {
+        Nes expected = load("/nestest.nes");
+        Cartridge cartridge = new Cartridge(Rom.load(CpuTest.class.getResourceAsStream("/nestest.nes")));
+        Nes actual = new Nes(cartridge);
+        actual.cpu().setRecompiler(new Recompiler(cartridge, 0));
+
+        for (Nes nes : List.of(expected, actual)) {
+            nes.cpu().setP(0x04);
+            nes.cpu().pc = 0xC000;
+            nes.cpu().totalCycles = 7;
+        }
+
+        // Vary the budget, so blocks get cut short at every possible instruction
+        int lastCycles = readResults().get(8990).cycles();
+        for (int budget = Recompiler.MinBudget; expected.cpu().totalCycles < lastCycles; budget = budget % 61 + Recompiler.MinBudget) {
+            assertThat(actual.cpu().run(budget)).isEqualTo(expected.cpu().run(budget));
+            assertThat(actual.cpu().toString()).isEqualTo(expected.cpu().toString());
+            assertThat(actual.cpu().getP()).isEqualTo(expected.cpu().getP());
+            assertThat(actual.cpu().totalCycles).isEqualTo(expected.cpu().totalCycles);
+        }
+        for (int address = 0; address < 0x0800; address++) {
+            assertThat(actual.cpuBus().read(address)).isEqualTo(expected.cpuBus().read(address));
+        }
+    }
+
+    private void runNesTest(Nes nes) {
+        nes.cpu().setP(0x04);
         nes.cpu().pc = 0xC000;
         nes.cpu().totalCycles = 7;
 
@@ -29,6 +65,7 @@ class CpuTest {
     @Test
     void testWithBlarggInstructionTiming() {
         Nes nes = load("/instr_timing.nes");
+        nes.ppu().setDrawing(false);
 
         while (true) {
             nes.step();
@@ -73,7 +110,7 @@ class CpuTest {
     }
 
     private Nes load(String path) {
-        InputStream in = Main.class.getResourceAsStream(path);
+        InputStream in = CpuTest.class.getResourceAsStream(path);
         Rom rom = Rom.load(in);
         Cartridge cartridge = new Cartridge(rom);
         return new Nes(cartridge);
@@ -87,9 +124,9 @@ class CpuTest {
         assertValue(cpu.y, state.y(), i, "Y");
         assertValue(cpu.s, state.sp(), i, "SP");
         assertValue(cpu.pc, state.pc(), i, "PC");
-        // assertValue(cpu.totalCycles, state.cycles(), i, "cycles");
+        assertValue((int) cpu.totalCycles, state.cycles(), i, "cycles");
 
-        int actual = cpu.p;
+        int actual = cpu.getP();
         int expected = state.status() & 0xdf; // Ignore bit 5
         assertThat(actual)
             .withFailMessage(() -> "Line " + (i + 1) + " -- Expected flags " + dumpFlags(expected) + " but was " + dumpFlags(actual) + " at " + Integer.toHexString(state.pc()))
@@ -116,7 +153,7 @@ class CpuTest {
     }
 
     private static List<State> readResults() {
-        try (InputStream in = Main.class.getResourceAsStream("/nestest.log");
+        try (InputStream in = CpuTest.class.getResourceAsStream("/nestest.log");
              BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))
         ) {
             return readResults(reader);
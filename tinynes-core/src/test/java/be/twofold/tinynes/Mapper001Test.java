@@ -0,0 +1,72 @@
+package be.twofold.tinynes;
+
+import org.junit.jupiter.api.*;
+
+import static org.assertj.core.api.Assertions.*;
+
+class Mapper001Test {
+
+    private final Mapper001 mapper = new Mapper001(8, 0);
+
+    @Test
+    void testSwitchingBankChangesGeneration() {
+        int generation = mapper.prgGeneration();
+        load(0xE000, 3);
+
+        assertThat(mapper.prgGeneration()).isNotEqualTo(generation);
+        assertThat(mapper.cpuRead(0x8000)).isEqualTo(3 * 0x4000);
+    }
+
+    @Test
+    void testSelectingSameBankKeepsGeneration() {
+        load(0xE000, 3);
+        int generation = mapper.prgGeneration();
+        load(0xE000, 3);
+
+        assertThat(mapper.prgGeneration()).isEqualTo(generation);
+    }
+
+    @Test
+    void testChrWritesKeepGeneration() {
+        int generation = mapper.prgGeneration();
+        load(0xA000, 5);
+        load(0xC000, 6);
+
+        assertThat(mapper.prgGeneration()).isEqualTo(generation);
+    }
+
+    @Test
+    void testSameBankInBothWindows() {
+        // In the default mode, $C000 is fixed to the last bank, and $8000 can select it too
+        load(0xE000, 7);
+
+        assertThat(mapper.cpuRead(0x8000)).isEqualTo(7 * 0x4000);
+        assertThat(mapper.cpuRead(0xC000)).isEqualTo(7 * 0x4000);
+    }
+
+    @Test
+    void testSameBankInBothWindowsCompilesPerWindow() {
+        byte[] prg = new byte[8 * 0x4000];
+        prg[7 * 0x4000] = (byte) 0xE8;     // INX
+        prg[7 * 0x4000 + 1] = (byte) 0x60; // RTS
+        Cartridge cartridge = new Cartridge(new Rom(1, prg, new byte[0], MirroringMode.HORIZONTAL));
+        Recompiler recompiler = new Recompiler(cartridge, 0);
+
+        Recompiler.Block high = recompiler.lookup(0xC000);
+        for (int i = 0; i < 5; i++) {
+            cartridge.cpuWrite(0xE000, (byte) ((7 >> i) & 0x01));
+        }
+        Recompiler.Block low = recompiler.lookup(0x8000);
+
+        assertThat(high).isNotNull();
+        assertThat(low).isNotNull().isNotSameAs(high);
+        assertThat(recompiler.lookup(0xC000)).isSameAs(high);
+    }
+
+    private void load(int address, int value) {
+        for (int i = 0; i < 5; i++) {
+            mapper.cpuWrite(address, (byte) ((value >> i) & 0x01));
+        }
+    }
+
+}
@@ -0,0 +1,96 @@
+package be.twofold.tinynes;
+
+import org.junit.jupiter.api.*;
+
+import java.io.*;
+
+import static org.assertj.core.api.Assertions.*;
+
+class MovieTest {
+
+    private static final int Frames = 300;
+
+    @Test
+    void testReplayMatchesRecording() {
+        Movie movie = readBack(record(load("/nestest.nes")));
+        assertThat(movie.frames()).isEqualTo(Frames);
+
+        Nes nes = load("/nestest.nes");
+        Movie.Player player = new Movie.Player(movie, nes);
+        nes.ppu().setDrawing(false);
+        while (player.hasNext()) {
+            nes.ppu().setDrawing(player.needsFrame());
+            player.beforeFrame();
+            nes.runFrame();
+            player.afterFrame();
+        }
+        assertThat(player.frame()).isEqualTo(Frames);
+    }
+
+    @Test
+    void testReplayDetectsDivergenceOnTheFrame() {
+        Movie movie = readBack(record(load("/nestest.nes")));
+
+        Nes nes = load("/nestest.nes");
+        Movie.Player player = new Movie.Player(movie, nes);
+        assertThatIllegalStateException().isThrownBy(() -> {
+            while (player.hasNext()) {
+                player.beforeFrame();
+                if (player.frame() == 100) {
+                    nes.cpuBus().write(0x0300, (byte) 0x55);
+                }
+                nes.runFrame();
+                player.afterFrame();
+            }
+        }).withMessageStartingWith("Replay diverged at frame 100:");
+    }
+
+    @Test
+    void testPlayerRejectsOtherRom() {
+        Movie movie = record(load("/nestest.nes"));
+        assertThatIllegalArgumentException().isThrownBy(() -> new Movie.Player(movie, load("/instr_timing.nes")));
+    }
+
+    @Test
+    void testRecorderNeedsDrawnFrames() {
+        Nes nes = load("/nestest.nes");
+        Movie.Recorder recorder = new Movie.Recorder(nes, 60);
+        nes.ppu().setDrawing(false);
+        nes.runFrame();
+        assertThatIllegalStateException().isThrownBy(recorder::record);
+    }
+
+    @Test
+    void testReadRejectsOtherFiles() {
+        assertThatExceptionOfType(UncheckedIOException.class)
+            .isThrownBy(() -> Movie.read(new ByteArrayInputStream(new byte[16])));
+    }
+
+    private Movie record(Nes nes) {
+        Movie.Recorder recorder = new Movie.Recorder(nes, 60);
+        for (int frame = 0; frame < Frames; frame++) {
+            if (frame == 30) {
+                nes.controller1().press(ButtonKey.START);
+            }
+            if (frame == 35) {
+                nes.controller1().release(ButtonKey.START);
+            }
+            nes.runFrame();
+            recorder.record();
+        }
+        return recorder.finish();
+    }
+
+    private Movie readBack(Movie movie) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        movie.write(out);
+        return Movie.read(new ByteArrayInputStream(out.toByteArray()));
+    }
+
+    private Nes load(String path) {
+        Nes nes = new Nes(new Cartridge(Rom.load(MovieTest.class.getResourceAsStream(path))));
+        nes.setBatch(true);
+        return nes;
+    }
+
+}
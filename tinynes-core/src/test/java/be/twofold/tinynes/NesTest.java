@@ -0,0 +1,212 @@
+package be.twofold.tinynes;
+
+import org.junit.jupiter.api.*;
+
+import java.io.*;
+import java.nio.*;
+import java.util.*;
+
+import static org.assertj.core.api.Assertions.*;
+
+class NesTest {
+
+    private static final int Frames = 120;
+
+    @Test
+    void testBatchMatchesLockstep() {
+        Nes batch = load("/nestest.nes");
+        batch.setBatch(true);
+        assertMatchesLockstep("/nestest.nes", batch);
+    }
+
+    @Test
+    void testBatchMatchesLockstepCpuTiming() {
+        Nes batch = load("/cpu_timing_test.nes");
+        batch.setBatch(true);
+        assertMatchesLockstep("/cpu_timing_test.nes", batch);
+    }
+
+    @Test
+    void testBatchMatchesLockstepInstrTiming() {
+        Nes batch = load("/instr_timing.nes");
+        batch.setBatch(true);
+        assertMatchesLockstep("/instr_timing.nes", batch);
+    }
+
+    @Test
+    void testRecompilerMatchesLockstep() {
+        Nes batch = load("/instr_timing.nes");
+        batch.setBatch(true);
+        batch.setRecompiler(true);
+        assertMatchesLockstep("/instr_timing.nes", batch);
+    }
+
+    @Test
+    void testWithoutDrawingMatchesLockstep() {
+        for (String path : new String[]{"/nestest.nes", "/cpu_timing_test.nes", "/instr_timing.nes"}) {
+            Nes lockstep = load(path);
+            Nes batch = load(path);
+            batch.setBatch(true);
+            batch.ppu().setDrawing(false);
+
+            for (int frame = 0; frame < Frames; frame++) {
+                lockstep.runFrame();
+                batch.runFrame();
+
+                assertThat(batch.cpu().toString())
+                    .withFailMessage("%s, frame %d differs", path, frame)
+                    .isEqualTo(lockstep.cpu().toString());
+                assertThat(batch.cpu().totalCycles).isEqualTo(lockstep.cpu().totalCycles + lockstep.cpu().cycles);
+            }
+        }
+    }
+
+    @Test
+    void testIdleLoopsMatchBatchNesTest() {
+        assertIdleLoopsMatchBatch("/nestest.nes");
+    }
+
+    @Test
+    void testIdleLoopsMatchBatchCpuTiming() {
+        assertIdleLoopsMatchBatch("/cpu_timing_test.nes");
+    }
+
+    @Test
+    void testIdleLoopsMatchBatchInstrTiming() {
+        assertIdleLoopsMatchBatch("/instr_timing.nes");
+    }
+
+    @Test
+    void testLoadStateRepeatsFrames() {
+        for (boolean batch : new boolean[]{false, true}) {
+            Nes nes = load("/instr_timing.nes");
+            nes.setBatch(batch);
+            for (int frame = 0; frame < 30; frame++) {
+                nes.runFrame();
+            }
+
+            ByteBuffer state = ByteBuffer.allocate(nes.stateSize());
+            nes.saveState(state);
+            assertThat(state.position()).isEqualTo(nes.stateSize());
+            List<String> expected = runFrames(nes, 30);
+
+            nes.loadState(state.flip());
+            assertThat(runFrames(nes, 30)).isEqualTo(expected);
+        }
+    }
+
+    @Test
+    void testLockstepStateLoadsInBatch() {
+        Nes lockstep = load("/instr_timing.nes");
+        for (int frame = 0; frame < 30; frame++) {
+            lockstep.runFrame();
+        }
+        // Stop somewhere in the middle of a frame and of an instruction
+        for (int i = 0; i < 12345; i++) {
+            lockstep.clock();
+        }
+
+        ByteBuffer state = ByteBuffer.allocate(lockstep.stateSize());
+        lockstep.saveState(state);
+        Nes batch = load("/instr_timing.nes");
+        batch.setBatch(true);
+        batch.loadState(state.flip());
+
+        // The first frame is only partly drawn after loading
+        lockstep.runFrame();
+        batch.runFrame();
+        assertMatchesLockstep(lockstep, batch, 30);
+    }
+
+    @Test
+    void testLoadStateRejectsOtherStates() {
+        Nes nes = load("/instr_timing.nes");
+        ByteBuffer state = ByteBuffer.allocate(nes.stateSize());
+        nes.saveState(state);
+
+        ByteBuffer version = ByteBuffer.allocate(state.capacity()).put(state.flip()).flip();
+        version.putInt(4, 99);
+        assertThatIllegalArgumentException().isThrownBy(() -> nes.loadState(version));
+        assertThatIllegalArgumentException().isThrownBy(() -> nes.loadState(ByteBuffer.allocate(state.capacity())));
+
+        Nes other = load("/nestest.nes");
+        assertThatIllegalArgumentException().isThrownBy(() -> other.loadState(state.rewind()));
+
+        // A different game with the same mapper and RAM has a state of the same size
+        Rom rom = Rom.load(NesTest.class.getResourceAsStream("/nestest.nes"));
+        byte[] prg = rom.getPrg().clone();
+        prg[0] ^= 0x01;
+        Nes same = new Nes(new Cartridge(new Rom(rom.getMapperId(), prg, rom.getChr(), rom.getMirroringMode())));
+        ByteBuffer sameState = ByteBuffer.allocate(other.stateSize());
+        other.saveState(sameState);
+        assertThat(same.stateSize()).isEqualTo(other.stateSize());
+        assertThatIllegalArgumentException().isThrownBy(() -> same.loadState(sameState.flip()));
+    }
+
+    private List<String> runFrames(Nes nes, int count) {
+        byte[] screen = new byte[256 * 240];
+        List<String> result = new ArrayList<>();
+        for (int frame = 0; frame < count; frame++) {
+            nes.runFrame();
+            nes.ppu().draw(screen);
+            result.add(nes.cpu() + " " + nes.cpu().totalCycles + " " + Arrays.hashCode(screen));
+        }
+        return result;
+    }
+
+    private void assertMatchesLockstep(String path, Nes batch) {
+        assertMatchesLockstep(load(path), batch, Frames);
+    }
+
+    private void assertMatchesLockstep(Nes lockstep, Nes batch, int frames) {
+        byte[] expected = new byte[256 * 240];
+        byte[] actual = new byte[256 * 240];
+        for (int frame = 0; frame < frames; frame++) {
+            lockstep.runFrame();
+            batch.runFrame();
+
+            lockstep.ppu().draw(expected);
+            batch.ppu().draw(actual);
+            assertThat(actual)
+                .withFailMessage("Frame %d differs", frame)
+                .isEqualTo(expected);
+            assertThat(batch.cpu().toString()).isEqualTo(lockstep.cpu().toString());
+            assertThat(batch.cpu().getP()).isEqualTo(lockstep.cpu().getP());
+
+            // Lockstep can stop in the middle of an instruction, batch always runs it to the end
+            assertThat(batch.cpu().totalCycles)
+                .withFailMessage("Frame %d", frame)
+                .isEqualTo(lockstep.cpu().totalCycles + lockstep.cpu().cycles);
+        }
+    }
+
+    private void assertIdleLoopsMatchBatch(String path) {
+        Nes batch = load(path);
+        Nes idle = load(path);
+        batch.setBatch(true);
+        idle.setBatch(true);
+        idle.setIdleLoops(true);
+
+        byte[] expected = new byte[256 * 240];
+        byte[] actual = new byte[256 * 240];
+        for (int frame = 0; frame < Frames; frame++) {
+            batch.runFrame();
+            idle.runFrame();
+
+            batch.ppu().draw(expected);
+            idle.ppu().draw(actual);
+            assertThat(actual)
+                .withFailMessage("Frame %d differs", frame)
+                .isEqualTo(expected);
+            assertThat(idle.cpu().toString()).isEqualTo(batch.cpu().toString());
+            assertThat(idle.cpu().getP()).isEqualTo(batch.cpu().getP());
+            assertThat(idle.cpu().totalCycles).isEqualTo(batch.cpu().totalCycles);
+        }
+    }
+
+    private Nes load(String path) {
+        InputStream in = NesTest.class.getResourceAsStream(path);
+        return new Nes(new Cartridge(Rom.load(in)));
+    }
+
+}
@@ -0,0 +1,196 @@
+package be.twofold.tinynes;
+
+import org.junit.jupiter.api.*;
+
+import java.nio.*;
+import java.util.*;
+
+import static org.assertj.core.api.Assertions.*;
+
+class PpuTest {
+
+    private static final int Frames = 3;
+
+    @Test
+    void testClockLineMatchesClock() {
+        for (int seed = 0; seed < 64; seed++) {
+            Ppu dots = create(seed);
+            Ppu lines = create(seed);
+
+            byte[] expected = new byte[256 * 240];
+            byte[] actual = new byte[256 * 240];
+            for (int line = 0; line < Frames * 262; line++) {
+                for (int i = 0; i < 341; i++) {
+                    dots.clock();
+                }
+                lines.clockLine();
+
+                assertThat(lines.status())
+                    .withFailMessage("Seed %d, line %d: status differs", seed, line)
+                    .isEqualTo(dots.status());
+                assertThat(lines.nmi).isEqualTo(dots.nmi);
+            }
+
+            dots.draw(expected);
+            lines.draw(actual);
+            assertThat(actual)
+                .withFailMessage("Seed %d: frame differs", seed)
+                .isEqualTo(expected);
+        }
+    }
+
+    @Test
+    void testTimingDoesNotDependOnDrawing() {
+        for (int seed = 0; seed < 64; seed++) {
+            Ppu drawn = create(seed);
+            Ppu dots = create(seed);
+            Ppu lines = create(seed);
+            dots.setDrawing(false);
+            lines.setDrawing(false);
+
+            for (int line = 0; line < Frames * 262; line++) {
+                for (int i = 0; i < 341; i++) {
+                    drawn.clock();
+                    dots.clock();
+                }
+                lines.clockLine();
+
+                assertThat(dots.status()).isEqualTo(drawn.status());
+
+                assertThat(lines.status())
+                    .withFailMessage("Seed %d, line %d: status differs", seed, line)
+                    .isEqualTo(drawn.status());
+                assertThat(dots.nmi).isEqualTo(drawn.nmi);
+                assertThat(lines.nmi).isEqualTo(drawn.nmi);
+            }
+
+            byte[] frame = new byte[256 * 240];
+            lines.draw(frame);
+            assertThat(frame).containsOnly(0);
+
+            // Scrolling and shifters carry on as if every line was drawn
+            byte[] expected = new byte[256 * 240];
+            lines.setDrawing(true);
+            for (int line = 0; line < 262; line++) {
+                for (int i = 0; i < 341; i++) {
+                    drawn.clock();
+                }
+                lines.clockLine();
+            }
+            drawn.draw(expected);
+            lines.draw(frame);
+            assertThat(frame)
+                .withFailMessage("Seed %d: frame differs after drawing again", seed)
+                .isEqualTo(expected);
+        }
+    }
+
+    @Test
+    void testArgbOutputMatchesPalette() {
+        for (int seed = 0; seed < 16; seed++) {
+            int emphasis = seed & 0x07;
+            Ppu dots = create(seed);
+            Ppu lines = create(seed);
+            write(dots, 0x2001, 0x1E | emphasis << 5);
+            write(lines, 0x2001, 0x1E | emphasis << 5);
+
+            int[] dotsArgb = new int[256 * 240];
+            IntBuffer linesArgb = ByteBuffer.allocateDirect(256 * 240 * 4).order(ByteOrder.nativeOrder()).asIntBuffer();
+            dots.setOutput(dotsArgb);
+            lines.setOutput(linesArgb);
+            for (int line = 0; line < 262; line++) {
+                for (int i = 0; i < 341; i++) {
+                    dots.clock();
+                }
+                lines.clockLine();
+            }
+
+            byte[] frame = new byte[256 * 240];
+            dots.draw(frame);
+            for (int i = 0; i < frame.length; i++) {
+                int expected = Palette.Argb[emphasis << 6 | frame[i]];
+                assertThat(dotsArgb[i]).isEqualTo(expected);
+                assertThat(linesArgb.get(i)).isEqualTo(expected);
+            }
+        }
+    }
+
+    @Test
+    void testEmphasisDimsOtherChannels() {
+        for (int i = 0; i < 64; i++) {
+            assertThat(Palette.Argb[i]).isEqualTo(Palette.Palette[i] | 0xFF000000);
+            int color = Palette.Argb[1 << 6 | i];
+            assertThat(color >> 16 & 0xFF).isEqualTo(Palette.Palette[i] >> 16 & 0xFF);
+            assertThat(color >> 8 & 0xFF).isLessThanOrEqualTo(Palette.Palette[i] >> 8 & 0xFF);
+            assertThat(color & 0xFF).isLessThanOrEqualTo(Palette.Palette[i] & 0xFF);
+        }
+    }
+
+    @Test
+    void testSpriteOverflowFollowsOamWrites() {
+        Cartridge cartridge = new Cartridge(new Rom(0, new byte[0x4000], new byte[0x2000], MirroringMode.VERTICAL));
+        Ppu ppu = new Ppu(new PpuBus(cartridge));
+        write(ppu, 0x2003, 0x00);
+        for (int i = 0; i < 64; i++) {
+            write(ppu, 0x2004, i < 8 ? 10 : 0xFF);
+            write(ppu, 0x2004, 0);
+            write(ppu, 0x2004, 0);
+            write(ppu, 0x2004, 0);
+        }
+
+        runLines(ppu, 20);
+        assertThat(ppu.status() & 0x20).isNotZero();
+        runLines(ppu, 262 - 20);
+
+        // Moving a single sprite off the line gets rid of the overflow
+        write(ppu, 0x2003, 0x00);
+        write(ppu, 0x2004, 0xFF);
+        runLines(ppu, 20);
+        assertThat(ppu.status() & 0x20).isZero();
+    }
+
+    private static void runLines(Ppu ppu, int count) {
+        for (int i = 0; i < count; i++) {
+            ppu.clockLine();
+        }
+    }
+
+    /**
+     * Sets up random pattern tables, name tables, palettes, sprites, scrolling and rendering flags.
+     */
+    private static Ppu create(long seed) {
+        Random random = new Random(seed);
+        byte[] chr = new byte[0x2000];
+        random.nextBytes(chr);
+        Cartridge cartridge = new Cartridge(new Rom(0, new byte[0x4000], chr, MirroringMode.VERTICAL));
+        Ppu ppu = new Ppu(new PpuBus(cartridge));
+
+        write(ppu, 0x2006, 0x20);
+        write(ppu, 0x2006, 0x00);
+        for (int i = 0; i < 0x800; i++) {
+            write(ppu, 0x2007, random.nextInt(256));
+        }
+        write(ppu, 0x2006, 0x3F);
+        write(ppu, 0x2006, 0x00);
+        for (int i = 0; i < 0x20; i++) {
+            write(ppu, 0x2007, random.nextInt(64));
+        }
+
+        // Keep most sprites on screen, and sprite 0 on the background
+        write(ppu, 0x2003, 0x00);
+        for (int i = 0; i < 0x100; i++) {
+            write(ppu, 0x2004, (i & 0x03) == 0 ? random.nextInt(240) : random.nextInt(256));
+        }
+
+        write(ppu, 0x2000, random.nextInt(256) & 0xBF);
+        write(ppu, 0x2005, random.nextInt(256));
+        write(ppu, 0x2005, random.nextInt(240));
+        write(ppu, 0x2001, random.nextInt(256) & 0x1E);
+        return ppu;
+    }
+
+    private static void write(Ppu ppu, int address, int value) {
+        ppu.cpuWrite(address, (byte) value);
+    }
+
+}
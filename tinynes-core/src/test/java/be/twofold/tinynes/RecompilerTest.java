@@ -0,0 +1,116 @@
+package be.twofold.tinynes;
+
+import org.junit.jupiter.api.*;
+
+import java.util.*;
+
+import static org.assertj.core.api.Assertions.*;
+
+class RecompilerTest {
+
+    @Test
+    void testMirroredBankRunsInBothWindows() {
+        // NROM-128 shows its only bank at both $8000 and $C000. The same loops run long enough from $8000 to get
+        // compiled, then from $C000, and have to keep their branches, return addresses and pc in that window.
+        byte[] prg = new byte[0x4000];
+        byte[] code = {
+            (byte) 0xE8,                           // $x000: INX
+            (byte) 0xD0, (byte) 0xFD,              // $x001: BNE $x000
+            (byte) 0xC8,                           // $x003: INY
+            (byte) 0xC0, (byte) 0x04,              // $x004: CPY #$04
+            (byte) 0xD0, (byte) 0xF8,              // $x006: BNE $x000
+            (byte) 0x20, (byte) 0x20, (byte) 0xC0, // $x008: JSR $C020
+            (byte) 0x4C, (byte) 0x00, (byte) 0xC0, // $x00B: JMP $C000
+        };
+        System.arraycopy(code, 0, prg, 0, code.length);
+        prg[0x0020] = (byte) 0xA0; // LDY #$00
+        prg[0x0021] = (byte) 0x00;
+        prg[0x0022] = (byte) 0x60; // RTS
+        prg[0x3FFC] = (byte) 0x00;
+        prg[0x3FFD] = (byte) 0x80;
+
+        Nes interpreted = create(prg, false);
+        Nes compiled = create(prg, true);
+        for (int frame = 0; frame < 10; frame++) {
+            interpreted.runFrame();
+            compiled.runFrame();
+
+            assertThat(compiled.cpu().toString())
+                .withFailMessage("Frame %d differs", frame)
+                .isEqualTo(interpreted.cpu().toString());
+            assertThat(compiled.cpu().totalCycles).isEqualTo(interpreted.cpu().totalCycles);
+            for (int address = 0x01F0; address < 0x0200; address++) {
+                assertThat(compiled.cpuBus().read(address)).isEqualTo(interpreted.cpuBus().read(address));
+            }
+        }
+        assertThat(compiled.cpu().getPc()).isGreaterThanOrEqualTo(0xC000);
+    }
+
+    @Test
+    void testEveryOpcodeMatchesInterpreter() {
+        // Runs each opcode once from RAM, with operands, indexes and flags that do and don't cross a page or take a
+        // branch, and compares the compiled handler calls with the interpreter, cycles included
+        byte[] prg = new byte[0x4000];
+        Nes interpreted = create(prg, false);
+        Nes compiled = create(prg, false);
+        Recompiler recompiler = new Recompiler(compiled.cartridge(), 0);
+
+        for (int opcode = 0; opcode < 0x100; opcode++) {
+            String mode = Recompiler.mode(opcode);
+            for (int lo : new int[]{0x10, 0xF0}) {
+                for (int index : new int[]{0x08, 0xF8}) {
+                    for (int p : new int[]{0x00, 0xC3}) {
+                        int operand = Recompiler.length(mode) == 3 ? lo | 0x02 << 8 : lo;
+                        setUp(interpreted, opcode, lo, index, p);
+                        setUp(compiled, opcode, lo, index, p);
+
+                        int expected = (int) interpreted.cpu().run(1);
+                        int actual = recompiler.compile(0x0600, opcode, operand).run(compiled.cpu(), Integer.MAX_VALUE);
+
+                        String name = String.format("%02X %s, operand %02X, index %02X, P %02X",
+                            opcode, Recompiler.operation(opcode) + " " + mode, lo, index, p);
+                        assertThat(actual).as(name + " cycles").isEqualTo(expected);
+                        assertThat(compiled.cpu().toString()).as(name).isEqualTo(interpreted.cpu().toString());
+                        assertThat(compiled.cpu().getP()).as(name + " flags").isEqualTo(interpreted.cpu().getP());
+                        assertThat(compiled.cpu().enabled).as(name + " enabled").isEqualTo(interpreted.cpu().enabled);
+                        assertThat(compiled.cpuBus().ram()).as(name + " RAM").isEqualTo(interpreted.cpuBus().ram());
+                    }
+                }
+            }
+        }
+    }
+
+    private static void setUp(Nes nes, int opcode, int lo, int index, int p) {
+        byte[] ram = nes.cpuBus().ram();
+        Random random = new Random(opcode);
+        random.nextBytes(ram);
+        // Every pointer the indirect modes can read points into RAM, where adding Y may or may not cross a page
+        for (int pointer : new int[]{0x08, 0x10, 0x18, 0xE8, 0xF0, 0xF8}) {
+            ram[pointer] = (byte) 0xE0;
+            ram[pointer + 1] = 0x03;
+        }
+        ram[0x0600] = (byte) opcode;
+        ram[0x0601] = (byte) lo;
+        ram[0x0602] = 0x02;
+
+        Cpu cpu = nes.cpu();
+        cpu.a = 0x5A;
+        cpu.x = index;
+        cpu.y = index;
+        cpu.s = 0xFD;
+        cpu.setP(p);
+        cpu.pc = 0x0600;
+        cpu.cycles = 0;
+        cpu.totalCycles = 0;
+        cpu.enabled = true;
+    }
+
+    private static Nes create(byte[] prg, boolean recompiler) {
+        Nes nes = new Nes(new Cartridge(new Rom(0, prg, new byte[0x2000], MirroringMode.HORIZONTAL)));
+        nes.cpu().reset();
+        nes.setBatch(true);
+        nes.setRecompiler(recompiler);
+        return nes;
+    }
+
+}
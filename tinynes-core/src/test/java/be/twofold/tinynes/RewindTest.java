@@ -0,0 +1,82 @@
+package be.twofold.tinynes;
+
+import org.junit.jupiter.api.*;
+
+import java.nio.*;
+import java.util.*;
+
+import static org.assertj.core.api.Assertions.*;
+
+class RewindTest {
+
+    @Test
+    void testRewindRestoresEveryFrame() {
+        Nes nes = load();
+        Rewind rewind = new Rewind(nes, 1024 * 1024);
+        List<byte[]> states = run(nes, rewind, 200);
+        assertThat(rewind.frames()).isEqualTo(200);
+
+        assertRewindsTo(nes, rewind, states, 0);
+        assertThat(rewind.rewind()).isFalse();
+    }
+
+    @Test
+    void testRewindDropsOldestFramesWhenFull() {
+        Nes nes = load();
+        Rewind rewind = new Rewind(nes, 64 * 1024);
+        List<byte[]> states = run(nes, rewind, 1000);
+        assertThat(rewind.frames()).isBetween(1, 999);
+        assertThat(rewind.bytesUsed()).isLessThanOrEqualTo(64 * 1024);
+
+        assertRewindsTo(nes, rewind, states, states.size() - rewind.frames());
+        assertThat(rewind.rewind()).isFalse();
+    }
+
+    @Test
+    void testCaptureAfterRewindContinues() {
+        Nes nes = load();
+        Rewind rewind = new Rewind(nes, 1024 * 1024);
+        List<byte[]> states = run(nes, rewind, 100);
+        for (int i = 0; i < 70; i++) {
+            rewind.rewind();
+        }
+
+        // Running again from an earlier frame ends up in the same states, which rewind like before
+        states = states.subList(0, 30);
+        states.addAll(run(nes, rewind, 100));
+        assertThat(rewind.frames()).isEqualTo(130);
+        assertRewindsTo(nes, rewind, states, 0);
+    }
+
+    private List<byte[]> run(Nes nes, Rewind rewind, int frames) {
+        List<byte[]> states = new ArrayList<>();
+        for (int frame = 0; frame < frames; frame++) {
+            nes.runFrame();
+            rewind.capture();
+            states.add(state(nes));
+        }
+        return states;
+    }
+
+    private void assertRewindsTo(Nes nes, Rewind rewind, List<byte[]> states, int oldest) {
+        for (int frame = states.size() - 2; frame >= oldest; frame--) {
+            assertThat(rewind.rewind()).isTrue();
+            assertThat(state(nes))
+                .withFailMessage("Frame %d differs", frame)
+                .isEqualTo(states.get(frame));
+        }
+    }
+
+    private byte[] state(Nes nes) {
+        ByteBuffer buffer = ByteBuffer.allocate(nes.stateSize());
+        nes.saveState(buffer);
+        return buffer.array();
+    }
+
+    private Nes load() {
+        Nes nes = new Nes(new Cartridge(Rom.load(RewindTest.class.getResourceAsStream("/instr_timing.nes"))));
+        nes.setBatch(true);
+        return nes;
+    }
+
+}
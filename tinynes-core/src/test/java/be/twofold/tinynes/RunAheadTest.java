@@ -0,0 +1,64 @@
+package be.twofold.tinynes;
+
+import org.junit.jupiter.api.*;
+
+import java.nio.*;
+import java.util.*;
+
+import static org.assertj.core.api.Assertions.*;
+
+class RunAheadTest {
+
+    private static final int Frames = 60;
+
+    @Test
+    void testShowsFramesAheadAndStaysBehind() {
+        for (int ahead = 0; ahead <= 2; ahead++) {
+            Nes reference = load();
+            List<byte[]> screens = new ArrayList<>();
+            List<byte[]> states = new ArrayList<>();
+            for (int frame = 0; frame < Frames + ahead; frame++) {
+                reference.runFrame();
+                screens.add(screen(reference));
+                states.add(state(reference));
+            }
+
+            Nes nes = load();
+            RunAhead runAhead = new RunAhead(nes);
+            runAhead.setFrames(ahead);
+            for (int frame = 0; frame < Frames; frame++) {
+                runAhead.runFrame();
+                assertThat(screen(nes))
+                    .withFailMessage("Frame %d, %d ahead", frame, ahead)
+                    .isEqualTo(screens.get(frame + ahead));
+                assertThat(state(nes)).isEqualTo(states.get(frame));
+            }
+            assertThat(nes.ppu().isDrawing()).isTrue();
+        }
+    }
+
+    @Test
+    void testRejectsNegativeFrames() {
+        RunAhead runAhead = new RunAhead(load());
+        assertThatIllegalArgumentException().isThrownBy(() -> runAhead.setFrames(-1));
+    }
+
+    private byte[] screen(Nes nes) {
+        byte[] screen = new byte[256 * 240];
+        nes.ppu().draw(screen);
+        return screen;
+    }
+
+    private byte[] state(Nes nes) {
+        ByteBuffer buffer = ByteBuffer.allocate(nes.stateSize());
+        nes.saveState(buffer);
+        return buffer.array();
+    }
+
+    private Nes load() {
+        Nes nes = new Nes(new Cartridge(Rom.load(RunAheadTest.class.getResourceAsStream("/nestest.nes"))));
+        nes.setBatch(true);
+        return nes;
+    }
+
+}
@@ -0,0 +1,44 @@
+package be.twofold.tinynes;
+
+import org.junit.jupiter.api.*;
+
+import static org.assertj.core.api.Assertions.*;
+
+class SchedulerTest {
+
+    private final Scheduler scheduler = new Scheduler();
+
+    @Test
+    void testEmptyNeverFires() {
+        assertThat(scheduler.nextTime()).isEqualTo(Scheduler.Never);
+    }
+
+    @Test
+    void testEarliestEventComesFirst() {
+        scheduler.schedule(Scheduler.Event.FRAME_END, 89342);
+        scheduler.schedule(Scheduler.Event.SCANLINE, 341);
+        scheduler.schedule(Scheduler.Event.VERTICAL_BLANK, 82183);
+
+        assertThat(scheduler.next()).isEqualTo(Scheduler.Event.SCANLINE);
+        scheduler.cancel(Scheduler.Event.SCANLINE);
+        assertThat(scheduler.next()).isEqualTo(Scheduler.Event.VERTICAL_BLANK);
+        assertThat(scheduler.nextTime()).isEqualTo(82183);
+    }
+
+    @Test
+    void testDmaComesFirstOnTies() {
+        scheduler.schedule(Scheduler.Event.SCANLINE, 1000);
+        scheduler.schedule(Scheduler.Event.DMA, 1000);
+
+        assertThat(scheduler.next()).isEqualTo(Scheduler.Event.DMA);
+    }
+
+    @Test
+    void testTimesDoNotOverflow() {
+        long time = 1L << 40;
+        scheduler.schedule(Scheduler.Event.SCANLINE, time);
+
+        assertThat(scheduler.nextTime()).isEqualTo(time);
+    }
+
+}
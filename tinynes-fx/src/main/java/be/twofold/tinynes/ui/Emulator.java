@@ -0,0 +1,227 @@
+package be.twofold.tinynes.ui;
+
+import be.twofold.tinynes.*;
+import javafx.scene.image.*;
+
+import java.nio.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.*;
+
+/**
+ * Runs the emulator on its own thread, away from the JavaFX Application Thread.
+ * <p>
+ * Finished frames go out through a {@link TripleBuffer}, and input comes in through a non-blocking queue,
+ * so neither side ever waits on the other.
+ */
+final class Emulator implements Runnable {
+    private static final int RewindCapacity = 8 * 1024 * 1024;
+    private static final int RecordInterval = 60;
+
+    private final FramePacer pacer = new FramePacer();
+    private final Queue<Input> input = new ConcurrentLinkedQueue<>();
+    private final Set<ButtonKey> held = EnumSet.noneOf(ButtonKey.class);
+    private final TripleBuffer<Frame> frames;
+    private final Nes nes;
+    private final Rewind rewind;
+    private final RunAhead runAhead;
+    private final Consumer<Exception> onError;
+    private volatile boolean running = true;
+    private volatile boolean rewinding;
+    private volatile double speed = 1;
+    private volatile int runAheadFrames;
+    private Movie.Recorder recorder;
+    private Thread thread;
+
+    Emulator(Nes nes, TripleBuffer<Frame> frames, Consumer<Exception> onError) {
+        this.nes = nes;
+        this.frames = frames;
+        this.onError = onError;
+        pacer.setAdaptive(true);
+        nes.setBatch(true);
+        this.rewind = new Rewind(nes, RewindCapacity);
+        this.runAhead = new RunAhead(nes);
+    }
+
+    void start() {
+        running = true;
+        thread = new Thread(this, "Emulator");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops the thread and waits for the frame it is running, so the next emulator can take over the buffers.
+     */
+    void stop() {
+        running = false;
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Records a movie from power on, which has to be called before the first start.
+     * Rewind and run-ahead are off while recording, as the movie has to follow the frames as they ran.
+     */
+    void record() {
+        recorder = new Movie.Recorder(nes, RecordInterval);
+    }
+
+    boolean isRecording() {
+        return recorder != null;
+    }
+
+    /**
+     * Ends the recording, which can only be done while stopped.
+     */
+    Movie stopRecording() {
+        Movie movie = recorder.finish();
+        recorder = null;
+        return movie;
+    }
+
+    /**
+     * Called on every display refresh, so pacing can follow it.
+     */
+    void displayRefreshed(long now) {
+        pacer.displayRefreshed(now);
+    }
+
+    /**
+     * Sets the speed as a multiple of normal speed, infinity runs as fast as possible.
+     */
+    void setSpeed(double speed) {
+        this.speed = speed;
+    }
+
+    /**
+     * Runs backwards, a frame at a time, while set.
+     */
+    void setRewinding(boolean rewinding) {
+        this.rewinding = rewinding;
+    }
+
+    /**
+     * Sets the number of frames to run ahead of the one shown, to hide the lag the game has.
+     */
+    void setRunAhead(int frames) {
+        this.runAheadFrames = frames;
+    }
+
+    void press(ButtonKey key) {
+        input.offer(new Input(key, true));
+    }
+
+    void release(ButtonKey key) {
+        input.offer(new Input(key, false));
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            double speed = this.speed;
+            if (speed != pacer.speed()) {
+                pacer.setSpeed(speed);
+            }
+            int runAheadFrames = this.runAheadFrames;
+            if (runAheadFrames != runAhead.getFrames()) {
+                runAhead.setFrames(runAheadFrames);
+            }
+
+            pacer.waitForNextFrame();
+            try {
+                runFrame(pacer.beginFrame());
+                pacer.endFrame();
+            } catch (Exception e) {
+                running = false;
+                onError.accept(e);
+                return;
+            }
+        }
+    }
+
+    private void runFrame(boolean render) {
+        for (Input next; (next = input.poll()) != null; ) {
+            if (next.pressed()) {
+                held.add(next.key());
+            } else {
+                held.remove(next.key());
+            }
+        }
+
+        // Going back two frames and running one shows the frame before the last one
+        if (rewinding && recorder == null && rewind.rewind()) {
+            rewind.rewind();
+        }
+        for (ButtonKey key : ButtonKey.values()) {
+            if (held.contains(key)) {
+                nes.controller1().press(key);
+            } else {
+                nes.controller1().release(key);
+            }
+        }
+
+        // Skipped frames still run everything the CPU can see, they're just not drawn
+        render |= recorder != null && recorder.needsFrame();
+        nes.ppu().setDrawing(render);
+        if (!render) {
+            runFrame();
+            return;
+        }
+
+        Frame frame = frames.back();
+        nes.ppu().setOutput(frame.pixels);
+        runFrame();
+        frame.status = nes.cpu().toString();
+        frame.pacing = pacer.speed() == Double.POSITIVE_INFINITY
+            ? "Unlimited"
+            : String.format("%.4f Hz, %s", 1e9 / pacer.period(), pacer.jitter());
+        frames.publish();
+    }
+
+    private void runFrame() {
+        if (recorder != null) {
+            nes.runFrame();
+            recorder.record();
+            return;
+        }
+        runAhead.runFrame();
+        rewind.capture();
+    }
+
+    private record Input(ButtonKey key, boolean pressed) {
+    }
+
+    /**
+     * A finished frame, with the pixels the PPU drew and the image they are shown in.
+     * <p>
+     * The image may only be touched on the FX thread, so the PPU draws into a plain array,
+     * which {@link #upload()} copies over.
+     */
+    static final class Frame {
+        final int[] pixels;
+        final PixelBuffer<IntBuffer> buffer;
+        final WritableImage image;
+        String status = "";
+        String pacing = "";
+
+        Frame(int width, int height) {
+            pixels = new int[width * height];
+            buffer = new PixelBuffer<>(width, height, IntBuffer.allocate(width * height), PixelFormat.getIntArgbPreInstance());
+            image = new WritableImage(buffer);
+        }
+
+        /**
+         * Copies the pixels into the image, which has to be called on the FX thread.
+         */
+        void upload() {
+            buffer.updateBuffer(target -> {
+                target.getBuffer().put(0, pixels);
+                return null;
+            });
+        }
+    }
+}
@@ -0,0 +1,226 @@
+package be.twofold.tinynes.ui;
+
+import java.util.concurrent.locks.*;
+import java.util.function.*;
+
+/**
+ * Paces frames at the NTSC rate of about 60.0988 Hz.
+ * <p>
+ * Deadlines are counted from a start time, so rounding never adds up to drift. Waiting parks the thread until
+ * shortly before the deadline and spins the rest of the way; the spin window follows how late parking wakes up.
+ * With adaptive sync on, the pacer follows the display refresh instead when both are close enough, so the display
+ * never has to show a frame twice or drop one.
+ * <p>
+ * Running faster than normal speed, frames are only rendered as often as the display shows them. Which frames
+ * those are follows from how long a frame takes to run, so skipping adjusts to the host.
+ */
+final class FramePacer {
+    // The rate of real hardware, where odd frames skip a dot: 262 * 341 - 0.5 dots on average, of 4 master clocks
+    // at 236.25 / 11 MHz. The emulated PPU doesn't skip the dot, so its frames are a whole 262 * 341 dots, but the
+    // pacer targets the rate of the console on purpose, not the length of an emulated frame.
+    static final long NtscNumerator = (262 * 341 * 2 - 1) * 2 * 11 * 4000L;
+    static final long NtscDenominator = 945;
+    static final double NtscRate = 1e9 * NtscDenominator / NtscNumerator;
+
+    private static final double SyncTolerance = 0.01;
+    private static final long MinSpin = 50_000;
+    private static final long MaxSpin = 2_000_000;
+
+    private final LongSupplier clock;
+    private volatile boolean adaptive;
+    private volatile long displayPeriod;
+    private long lastRefresh;
+
+    private long start;
+    private long frames;
+    private long numerator = NtscNumerator;
+    private long denominator = NtscDenominator;
+    private long spin = 1_000_000;
+    private double speed = 1;
+
+    // region Frameskip
+    private long frameStart;
+    private long frameCost;
+    private long nextPresent;
+    // endregion
+
+    // region Statistics
+    private long count;
+    private double mean;
+    private double m2;
+    private long max;
+    // endregion
+
+    FramePacer() {
+        this(System::nanoTime);
+    }
+
+    FramePacer(LongSupplier clock) {
+        this.clock = clock;
+        this.start = clock.getAsLong();
+    }
+
+    /**
+     * Turns following the display refresh on or off.
+     */
+    void setAdaptive(boolean adaptive) {
+        this.adaptive = adaptive;
+    }
+
+    /**
+     * Called on every display refresh, from any thread, to measure its period.
+     */
+    void displayRefreshed(long now) {
+        if (lastRefresh != 0) {
+            long period = now - lastRefresh;
+            long average = displayPeriod;
+            displayPeriod = average == 0 ? period : average + (period - average) / 16;
+        }
+        lastRefresh = now;
+    }
+
+    /**
+     * Sets the speed as a multiple of normal speed, infinity runs as fast as possible.
+     * This also resets the jitter, which isn't comparable between speeds.
+     */
+    void setSpeed(double speed) {
+        if (!(speed > 0)) {
+            throw new IllegalArgumentException("Speed must be positive: " + speed);
+        }
+        if (speed != this.speed) {
+            this.speed = speed;
+            restart(clock.getAsLong());
+            resetJitter();
+        }
+    }
+
+    double speed() {
+        return speed;
+    }
+
+    /**
+     * The period frames are currently paced at, in nanoseconds.
+     */
+    double period() {
+        return numerator / (denominator * speed);
+    }
+
+    /**
+     * Waits for the deadline of the next frame, and records how late it was.
+     */
+    void waitForNextFrame() {
+        if (speed == Double.POSITIVE_INFINITY) {
+            return;
+        }
+
+        updatePeriod();
+        long deadline = start + deadline(++frames);
+        waitUntil(deadline);
+
+        long late = clock.getAsLong() - deadline;
+        record(late);
+        if (late > deadline(4)) {
+            // Too far behind to catch up, so start over
+            restart(clock.getAsLong());
+        }
+    }
+
+    private void updatePeriod() {
+        long display = displayPeriod;
+        boolean sync = adaptive && speed == 1 && display != 0
+            && Math.abs(display * NtscDenominator - NtscNumerator) < NtscNumerator * SyncTolerance;
+
+        long newNumerator = sync ? display : NtscNumerator;
+        long newDenominator = sync ? 1 : NtscDenominator;
+        if (newNumerator != numerator || newDenominator != denominator) {
+            restart(start + deadline(frames));
+            numerator = newNumerator;
+            denominator = newDenominator;
+        }
+    }
+
+    private long deadline(long frame) {
+        return speed == 1
+            ? frame * numerator / denominator
+            : (long) (frame * numerator / (denominator * speed));
+    }
+
+    private void restart(long time) {
+        start = time;
+        frames = 0;
+    }
+
+    private void waitUntil(long deadline) {
+        long remaining = deadline - clock.getAsLong();
+        if (remaining > spin) {
+            long wakeUp = deadline - spin;
+            LockSupport.parkNanos(remaining - spin);
+            long oversleep = clock.getAsLong() - wakeUp;
+            spin = Math.max(MinSpin, Math.min(MaxSpin, spin + (2 * oversleep - spin) / 8));
+        }
+        while (clock.getAsLong() < deadline) {
+            Thread.onSpinWait();
+        }
+    }
+
+    // region Frameskip
+
+    /**
+     * Starts a frame, and tells whether to render it. At normal speed or slower every frame is rendered, faster
+     * only the ones that finish when the display is due for a new frame.
+     */
+    boolean beginFrame() {
+        long now = clock.getAsLong();
+        frameStart = now;
+        if (speed <= 1 || now + frameCost >= nextPresent) {
+            long display = displayPeriod;
+            nextPresent = Math.max(nextPresent + (display != 0 ? display : NtscNumerator / NtscDenominator), now);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Ends a frame started with {@link #beginFrame()}, to keep track of how long frames take.
+     */
+    void endFrame() {
+        long cost = clock.getAsLong() - frameStart;
+        frameCost += (cost - frameCost) / 8;
+    }
+
+    // endregion
+
+    // region Statistics
+
+    private void record(long late) {
+        count++;
+        double delta = late - mean;
+        mean += delta / count;
+        m2 += delta * (late - mean);
+        max = Math.max(max, late);
+    }
+
+    /**
+     * How late frames started since the last speed change.
+     */
+    Jitter jitter() {
+        return new Jitter(count, mean, count > 1 ? Math.sqrt(m2 / (count - 1)) : 0, max);
+    }
+
+    private void resetJitter() {
+        count = 0;
+        mean = 0;
+        m2 = 0;
+        max = 0;
+    }
+
+    record Jitter(long frames, double mean, double stdDev, long max) {
+        @Override
+        public String toString() {
+            return String.format("Jitter: mean %.3f ms, sd %.3f ms, max %.3f ms", mean / 1e6, stdDev / 1e6, max / 1e6);
+        }
+    }
+
+    // endregion
+
+}
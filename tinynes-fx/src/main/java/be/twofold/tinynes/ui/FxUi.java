@@ -0,0 +1,321 @@
+package be.twofold.tinynes.ui;
+
+import be.twofold.tinynes.*;
+import javafx.animation.*;
+import javafx.application.*;
+import javafx.scene.*;
+import javafx.scene.canvas.*;
+import javafx.scene.control.*;
+import javafx.scene.input.*;
+import javafx.scene.layout.*;
+import javafx.scene.paint.*;
+import javafx.scene.text.*;
+import javafx.stage.*;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+public class FxUi extends Application {
+
+    private static final String Title = "TinyNES";
+    private static final int Width = 256;
+    private static final int Height = 240;
+    private static final int Scale = 2;
+    private static final Map<KeyCode, ButtonKey> KeyCodes = Map.of(
+        KeyCode.X, ButtonKey.A,
+        KeyCode.Z, ButtonKey.B,
+        KeyCode.SHIFT, ButtonKey.SELECT,
+        KeyCode.ENTER, ButtonKey.START,
+        KeyCode.UP, ButtonKey.UP,
+        KeyCode.DOWN, ButtonKey.DOWN,
+        KeyCode.LEFT, ButtonKey.LEFT,
+        KeyCode.RIGHT, ButtonKey.RIGHT
+    );
+    private static final KeyCode TurboKey = KeyCode.TAB;
+    private static final KeyCode RewindKey = KeyCode.BACK_SPACE;
+
+    private final AnimationTimer timer = new AnimationTimer() {
+        @Override
+        public void handle(long now) {
+            if (emulator != null) {
+                emulator.displayRefreshed(now);
+            }
+            update();
+        }
+    };
+    private final TripleBuffer<Emulator.Frame> frames = new TripleBuffer<>(() -> new Emulator.Frame(Width, Height));
+    private Stage primaryStage;
+    private Canvas canvas;
+    private Emulator emulator;
+    private Path romPath;
+    private Path moviePath;
+    private MenuItem fileRecord;
+    private MenuItem fileStopRecording;
+    private double speed = 1;
+    private int runAhead;
+    private boolean turbo;
+
+
+    @Override
+    public void start(Stage primaryStage) {
+        this.primaryStage = primaryStage;
+
+        BorderPane root = new BorderPane();
+        root.setCenter(buildDisplay());
+        root.setTop(buildMenu());
+        Scene scene = new Scene(root);
+        scene.setOnKeyPressed(this::handleKeyPressed);
+        scene.setOnKeyReleased(this::handleKeyReleased);
+
+        primaryStage.setTitle(Title);
+        primaryStage.setScene(scene);
+        primaryStage.sizeToScene();
+        primaryStage.show();
+
+        List<String> args = getParameters().getRaw();
+        if (!args.isEmpty()) {
+            loadRom(Path.of(args.get(0)));
+        }
+        timer.start();
+    }
+
+    @Override
+    public void stop() {
+        timer.stop();
+        if (emulator != null) {
+            emulator.stop();
+            saveRecording();
+        }
+    }
+
+    private void handleKeyPressed(KeyEvent event) {
+        if (event.getCode() == TurboKey) {
+            setTurbo(true);
+            event.consume();
+            return;
+        }
+        if (event.getCode() == RewindKey) {
+            if (emulator != null) {
+                emulator.setRewinding(true);
+            }
+            event.consume();
+            return;
+        }
+        ButtonKey key = KeyCodes.get(event.getCode());
+        if (emulator != null && key != null) {
+            emulator.press(key);
+        }
+    }
+
+    private void handleKeyReleased(KeyEvent event) {
+        if (event.getCode() == TurboKey) {
+            setTurbo(false);
+            event.consume();
+            return;
+        }
+        if (event.getCode() == RewindKey) {
+            if (emulator != null) {
+                emulator.setRewinding(false);
+            }
+            event.consume();
+            return;
+        }
+        ButtonKey key = KeyCodes.get(event.getCode());
+        if (emulator != null && key != null) {
+            emulator.release(key);
+        }
+    }
+
+    private Node buildDisplay() {
+        canvas = new Canvas(Width * Scale, Height * Scale);
+        canvas.getGraphicsContext2D().setImageSmoothing(false);
+        return canvas;
+    }
+
+    private MenuBar buildMenu() {
+        MenuItem fileLoad = new MenuItem("Load ROM");
+        fileLoad.setAccelerator(KeyCombination.valueOf("Shortcut+O"));
+        fileLoad.setOnAction(e -> loadRom());
+        fileRecord = new MenuItem("Record Movie");
+        fileRecord.setOnAction(e -> startRecording());
+        fileRecord.setDisable(true);
+        fileStopRecording = new MenuItem("Stop Recording");
+        fileStopRecording.setOnAction(e -> stopRecording());
+        fileStopRecording.setDisable(true);
+        MenuItem fileQuit = new MenuItem("Quit");
+        Menu file = new Menu("_File");
+        file.getItems().add(fileLoad);
+        file.getItems().add(new SeparatorMenuItem());
+        file.getItems().add(fileRecord);
+        file.getItems().add(fileStopRecording);
+        file.getItems().add(new SeparatorMenuItem());
+        file.getItems().add(fileQuit);
+
+        ToggleGroup speeds = new ToggleGroup();
+        Menu speedMenu = new Menu("_Speed");
+        for (double value : new double[]{0.5, 1, 2, 4, Double.POSITIVE_INFINITY}) {
+            RadioMenuItem item = new RadioMenuItem(value == Double.POSITIVE_INFINITY ? "Unlimited" : String.valueOf(value).replace(".0", "") + "x");
+            item.setToggleGroup(speeds);
+            item.setSelected(value == speed);
+            item.setOnAction(e -> setSpeed(value));
+            speedMenu.getItems().add(item);
+        }
+
+        ToggleGroup runAheads = new ToggleGroup();
+        Menu runAheadMenu = new Menu("_Run-ahead");
+        for (int value = 0; value <= 3; value++) {
+            int frames = value;
+            RadioMenuItem item = new RadioMenuItem(value == 0 ? "Off" : value + (value == 1 ? " frame" : " frames"));
+            item.setToggleGroup(runAheads);
+            item.setSelected(value == runAhead);
+            item.setOnAction(e -> setRunAhead(frames));
+            runAheadMenu.getItems().add(item);
+        }
+
+        MenuItem helpAbout = new MenuItem("About");
+        Menu help = new Menu("_Help");
+        help.getItems().add(helpAbout);
+
+        MenuBar menu = new MenuBar();
+        // menu.setUseSystemMenuBar(true);
+        menu.getMenus().add(file);
+        menu.getMenus().add(speedMenu);
+        menu.getMenus().add(runAheadMenu);
+        menu.getMenus().add(help);
+        return menu;
+    }
+
+    private void update() {
+        // Only draws, the emulator thread runs the frames
+        Emulator.Frame frame = frames.poll();
+        if (frame == null) {
+            return;
+        }
+        frame.upload();
+        GraphicsContext gc = canvas.getGraphicsContext2D();
+        gc.drawImage(frame.image, 0, 0, Width * Scale, Height * Scale);
+        gc.setFill(Color.WHITE);
+        gc.setFont(Font.font("Monospaced", 16));
+        gc.setFontSmoothingType(FontSmoothingType.LCD);
+        gc.fillText(frame.status, 10, 10);
+        gc.fillText(frame.pacing, 10, 30);
+    }
+
+    private void showError(Exception e) {
+        Alert alert = new Alert(Alert.AlertType.ERROR);
+        alert.setTitle("Error");
+        alert.setHeaderText(e.getMessage());
+
+        try (StringWriter sw = new StringWriter(); PrintWriter pw = new PrintWriter(sw)) {
+            e.printStackTrace(pw);
+            alert.setContentText(sw.toString());
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+
+        alert.getDialogPane().setMinWidth(800);
+        alert.getDialogPane().setMinHeight(Region.USE_PREF_SIZE);
+        alert.show();
+    }
+
+    public void loadRom() {
+        FileChooser fileChooser = new FileChooser();
+        fileChooser.setTitle("Select a ROM");
+        fileChooser.getExtensionFilters().add(
+            new FileChooser.ExtensionFilter("iNES ROM", "*.nes")
+        );
+        File rom = fileChooser.showOpenDialog(primaryStage);
+        if (rom != null) {
+            loadRom(rom.toPath());
+        }
+    }
+
+    private void setSpeed(double speed) {
+        this.speed = speed;
+        updateSpeed();
+    }
+
+    private void setRunAhead(int frames) {
+        this.runAhead = frames;
+        if (emulator != null) {
+            emulator.setRunAhead(frames);
+        }
+    }
+
+    /**
+     * Runs as fast as possible while the turbo key is held.
+     */
+    private void setTurbo(boolean turbo) {
+        this.turbo = turbo;
+        updateSpeed();
+    }
+
+    private void updateSpeed() {
+        if (emulator != null) {
+            emulator.setSpeed(turbo ? Double.POSITIVE_INFINITY : speed);
+        }
+    }
+
+    private void loadRom(Path path) {
+        startEmulator(path, null);
+    }
+
+    private void startEmulator(Path path, Path movie) {
+        if (emulator != null) {
+            emulator.stop();
+            saveRecording();
+        }
+        Nes nes = new Nes(new Cartridge(Rom.load(path)));
+        emulator = new Emulator(nes, frames, e -> Platform.runLater(() -> showError(e)));
+        if (movie != null) {
+            emulator.record();
+        }
+        romPath = path;
+        moviePath = movie;
+        fileRecord.setDisable(movie != null);
+        fileStopRecording.setDisable(movie == null);
+        updateSpeed();
+        emulator.setRunAhead(runAhead);
+        emulator.start();
+    }
+
+    /**
+     * Restarts the game and records a movie of it, until recording stops.
+     */
+    private void startRecording() {
+        FileChooser fileChooser = new FileChooser();
+        fileChooser.setTitle("Record a movie");
+        fileChooser.getExtensionFilters().add(
+            new FileChooser.ExtensionFilter("TinyNES movie", "*.movie")
+        );
+        File movie = fileChooser.showSaveDialog(primaryStage);
+        if (movie != null) {
+            startEmulator(romPath, movie.toPath());
+        }
+    }
+
+    private void stopRecording() {
+        emulator.stop();
+        saveRecording();
+        emulator.start();
+        fileRecord.setDisable(false);
+        fileStopRecording.setDisable(true);
+    }
+
+    /**
+     * Writes the movie being recorded, if any, with the emulator stopped.
+     */
+    private void saveRecording() {
+        if (!emulator.isRecording()) {
+            return;
+        }
+        try {
+            emulator.stopRecording().write(moviePath);
+        } catch (UncheckedIOException e) {
+            showError(e);
+        }
+        moviePath = null;
+    }
+
+}
@@ -1,6 +1,5 @@
-package be.twofold.tinynes;
+package be.twofold.tinynes.ui;
 
-import be.twofold.tinynes.ui.*;
 import javafx.application.*;
 
 public final class Main {
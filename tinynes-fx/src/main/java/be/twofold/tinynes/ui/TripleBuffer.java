@@ -0,0 +1,53 @@
+package be.twofold.tinynes.ui;
+
+import java.util.concurrent.atomic.*;
+import java.util.function.*;
+
+/**
+ * Hands the latest slot from one producer to one consumer without locking.
+ * <p>
+ * The producer fills {@link #back()} and publishes it, the consumer polls the most recently published slot.
+ * Neither side ever waits, and a slot is never handed to both at the same time.
+ */
+final class TripleBuffer<T> {
+    private static final int Fresh = 0x04;
+    private static final int Index = 0x03;
+
+    private final Object[] slots = new Object[3];
+    private final AtomicInteger middle = new AtomicInteger(2);
+    private int back = 0;
+    private int front = 1;
+
+    TripleBuffer(Supplier<T> supplier) {
+        for (int i = 0; i < slots.length; i++) {
+            slots[i] = supplier.get();
+        }
+    }
+
+    /**
+     * The slot the producer fills next.
+     */
+    @SuppressWarnings("unchecked")
+    T back() {
+        return (T) slots[back];
+    }
+
+    /**
+     * Publishes the back slot, and hands the producer a new one.
+     */
+    void publish() {
+        back = middle.getAndSet(back | Fresh) & Index;
+    }
+
+    /**
+     * Takes the most recently published slot, or returns null when nothing was published since the last poll.
+     */
+    @SuppressWarnings("unchecked")
+    T poll() {
+        if ((middle.get() & Fresh) == 0) {
+            return null;
+        }
+        front = middle.getAndSet(front) & Index;
+        return (T) slots[front];
+    }
+}
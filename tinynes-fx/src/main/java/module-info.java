@@ -1,6 +1,6 @@
-module be.twofold.tinyNES {
+module be.twofold.tinynes.fx {
 
-    requires java.desktop;
+    requires be.twofold.tinynes.core;
     requires javafx.base;
     requires javafx.graphics;
     requires javafx.controls;
@@ -0,0 +1,104 @@
+package be.twofold.tinynes.ui;
+
+import org.junit.jupiter.api.*;
+
+import static org.assertj.core.api.Assertions.*;
+
+class FramePacerTest {
+
+    private long now;
+    private final FramePacer pacer = new FramePacer(() -> now += 1000);
+
+    @Test
+    void testNtscRate() {
+        assertThat(FramePacer.NtscRate).isCloseTo(60.0988, within(0.0001));
+    }
+
+    @Test
+    void testDeadlinesDoNotDrift() {
+        long start = now;
+        for (int i = 0; i < 30; i++) {
+            pacer.waitForNextFrame();
+        }
+
+        long expected = start + 30 * FramePacer.NtscNumerator / FramePacer.NtscDenominator;
+        assertThat(now).isBetween(expected, expected + 10_000);
+        assertThat(pacer.jitter().frames()).isEqualTo(30);
+        assertThat(pacer.jitter().max()).isLessThan(10_000);
+    }
+
+    @Test
+    void testSpeedChangeResetsJitter() {
+        for (int i = 0; i < 10; i++) {
+            pacer.waitForNextFrame();
+        }
+        pacer.setSpeed(2);
+        assertThat(pacer.jitter().frames()).isZero();
+
+        pacer.waitForNextFrame();
+        assertThat(pacer.jitter().frames()).isEqualTo(1);
+    }
+
+    @Test
+    void testAdaptiveFollowsCloseDisplay() {
+        refresh(16_666_667);
+        pacer.setAdaptive(true);
+        pacer.waitForNextFrame();
+        assertThat(pacer.period()).isEqualTo(16_666_667);
+
+        pacer.setAdaptive(false);
+        pacer.waitForNextFrame();
+        assertThat(pacer.period()).isCloseTo(1e9 / FramePacer.NtscRate, within(1.0));
+    }
+
+    @Test
+    void testAdaptiveIgnoresDistantDisplay() {
+        refresh(20_000_000);
+        pacer.setAdaptive(true);
+        pacer.waitForNextFrame();
+        assertThat(pacer.period()).isCloseTo(1e9 / FramePacer.NtscRate, within(1.0));
+    }
+
+    @Test
+    void testNormalSpeedRendersEveryFrame() {
+        for (int i = 0; i < 10; i++) {
+            pacer.waitForNextFrame();
+            assertThat(pacer.beginFrame()).isTrue();
+            pacer.endFrame();
+        }
+    }
+
+    @Test
+    void testUnlimitedSpeedRendersAtDisplayRate() {
+        refresh(16_666_667);
+        pacer.setSpeed(Double.POSITIVE_INFINITY);
+
+        long start = now;
+        int rendered = 0;
+        for (int i = 0; i < 200_000; i++) {
+            pacer.waitForNextFrame();
+            if (pacer.beginFrame()) {
+                rendered++;
+            }
+            now += 5_000;
+            pacer.endFrame();
+        }
+
+        long presents = (now - start) / 16_666_667;
+        assertThat(rendered).isBetween((int) presents - 1, (int) presents + 2);
+    }
+
+    @Test
+    void testSpeedScalesPeriod() {
+        pacer.setSpeed(2);
+        assertThat(pacer.period()).isCloseTo(0.5e9 / FramePacer.NtscRate, within(1.0));
+        assertThatIllegalArgumentException().isThrownBy(() -> pacer.setSpeed(0));
+    }
+
+    private void refresh(long period) {
+        for (int i = 1; i <= 4; i++) {
+            pacer.displayRefreshed(i * period);
+        }
+    }
+
+}
@@ -0,0 +1,49 @@
+package be.twofold.tinynes.ui;
+
+import org.junit.jupiter.api.*;
+
+import static org.assertj.core.api.Assertions.*;
+
+class TripleBufferTest {
+
+    @Test
+    void testPollReturnsLatestPublished() {
+        TripleBuffer<int[]> buffer = new TripleBuffer<>(() -> new int[1]);
+        assertThat(buffer.poll()).isNull();
+
+        buffer.back()[0] = 1;
+        buffer.publish();
+        buffer.back()[0] = 2;
+        buffer.publish();
+
+        assertThat(buffer.poll()).containsExactly(2);
+        assertThat(buffer.poll()).isNull();
+    }
+
+    @Test
+    void testProducerNeverWritesPolledSlot() throws InterruptedException {
+        TripleBuffer<int[]> buffer = new TripleBuffer<>(() -> new int[2]);
+        int count = 1_000_000;
+        Thread producer = new Thread(() -> {
+            for (int i = 1; i <= count; i++) {
+                int[] slot = buffer.back();
+                slot[0] = i;
+                slot[1] = i;
+                buffer.publish();
+            }
+        });
+        producer.start();
+
+        // A torn slot or a step back in time means the producer and consumer shared a slot
+        int last = 0;
+        while (last < count) {
+            int[] slot = buffer.poll();
+            if (slot != null) {
+                assertThat(slot[0]).isEqualTo(slot[1]).isGreaterThan(last);
+                last = slot[0];
+            }
+        }
+        producer.join();
+    }
+
+}
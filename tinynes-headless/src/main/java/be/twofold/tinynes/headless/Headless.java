@@ -0,0 +1,235 @@
+package be.twofold.tinynes.headless;
+
+import be.twofold.tinynes.*;
+
+import java.nio.file.*;
+import java.util.*;
+import java.util.zip.*;
+
+/**
+ * Runs a ROM for a number of frames without any UI, and prints frame and RAM hashes and the frame rate.
+ * Movies can be recorded from scripted input, and replayed as fast as possible while checking every frame.
+ */
+public final class Headless {
+    private static final String Usage = String.join("\n",
+        "Usage: Headless <rom> [frames] [options]",
+        "  --input <file>  Scripted input for controller 1",
+        "  --record <file> Record a movie of the run",
+        "  --movie <file>  Replay a movie, only drawing the frames it checks, and stop where it diverges",
+        "  --every         Print hashes after every frame, instead of only the last",
+        "  --lockstep      Interleave the CPU and PPU every dot, instead of batch execution",
+        "  --no-draw       Skip drawing, frame hashes are left out",
+        "  --run-ahead <n> Run n frames ahead every frame, frame hashes are of the last one",
+        "  --warmup <n>    Run n frames on a separate instance first, to warm up the JIT"
+    );
+
+    private static final int DefaultFrames = 60;
+    private static final int RecordInterval = 60;
+
+    private final CRC32 crc = new CRC32();
+
+    public static void main(String[] args) {
+        Options options;
+        try {
+            options = Options.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(Usage);
+            System.exit(2);
+            return;
+        }
+        if (!new Headless().run(options)) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * @return If a replayed movie matched
+     */
+    private boolean run(Options options) {
+        Rom rom = Rom.load(options.rom());
+        Nes warmup = create(rom, options);
+        for (int i = 0; i < options.warmup(); i++) {
+            warmup.runFrame();
+        }
+
+        Nes nes = create(rom, options);
+        RunAhead runAhead = new RunAhead(nes);
+        runAhead.setFrames(options.runAhead());
+        Movie.Recorder recorder = options.record() != null ? new Movie.Recorder(nes, RecordInterval) : null;
+        Movie movie = options.movie() != null ? Movie.read(options.movie()) : null;
+        Movie.Player player = movie != null ? new Movie.Player(movie, nes) : null;
+
+        int frames = options.frames();
+        if (frames == 0) {
+            frames = movie != null ? movie.frames() : DefaultFrames;
+        }
+        long[] times = new long[frames];
+        int count = 0;
+        boolean matched = true;
+        long start = System.nanoTime();
+        for (; count < frames; count++) {
+            if (options.input() != null) {
+                options.input().apply(count, nes.controller1());
+            }
+            if (player != null) {
+                if (!player.hasNext()) {
+                    break;
+                }
+                player.beforeFrame();
+                nes.ppu().setDrawing(options.draw() && (player.needsFrame() || options.every() || count == frames - 1));
+            }
+            if (recorder != null) {
+                nes.ppu().setDrawing(options.draw() || recorder.needsFrame());
+            }
+
+            long frameStart = System.nanoTime();
+            runAhead.runFrame();
+            times[count] = System.nanoTime() - frameStart;
+
+            if (recorder != null) {
+                recorder.record();
+            }
+            if (player != null) {
+                try {
+                    player.afterFrame();
+                } catch (IllegalStateException e) {
+                    System.out.println(e.getMessage());
+                    matched = false;
+                    count++;
+                    break;
+                }
+            }
+            if (options.every() || count == frames - 1) {
+                System.out.println(hashes(nes, count, nes.ppu().isDrawing()));
+            }
+        }
+        long total = System.nanoTime() - start;
+
+        if (recorder != null) {
+            recorder.finish().write(options.record());
+        }
+        if (player != null && matched) {
+            System.out.println("movie matched " + count + " frames");
+        }
+
+        times = Arrays.copyOf(times, count);
+        Arrays.sort(times);
+        System.out.printf(Locale.ROOT, "frames=%d time=%.3f s fps=%.1f p50=%.3f ms p99=%.3f ms max=%.3f ms%n",
+            times.length, total / 1e9, times.length * 1e9 / total,
+            percentile(times, 0.50) / 1e6, percentile(times, 0.99) / 1e6, percentile(times, 1.0) / 1e6);
+        return matched;
+    }
+
+    private static Nes create(Rom rom, Options options) {
+        Nes nes = new Nes(new Cartridge(rom));
+        nes.setBatch(!options.lockstep());
+        nes.ppu().setDrawing(options.draw());
+        return nes;
+    }
+
+    private String hashes(Nes nes, int index, boolean draw) {
+        StringBuilder builder = new StringBuilder("frame ").append(index);
+        if (draw) {
+            crc.reset();
+            crc.update(nes.ppu().frame());
+            builder.append(String.format(" frame=%08x", crc.getValue()));
+        }
+
+        crc.reset();
+        for (int address = 0; address < 0x0800; address++) {
+            crc.update(nes.cpuBus().read(address));
+        }
+        return builder.append(String.format(" ram=%08x", crc.getValue())).toString();
+    }
+
+    private static long percentile(long[] sorted, double fraction) {
+        int index = (int) Math.ceil(fraction * sorted.length) - 1;
+        return sorted[Math.max(index, 0)];
+    }
+
+    /**
+     * @param frames The number of frames to run, 0 runs the whole movie or the default
+     */
+    record Options(Path rom, int frames, InputScript input, Path record, Path movie, boolean every, boolean lockstep,
+                   boolean draw, int warmup, int runAhead) {
+        static Options parse(String[] args) {
+            int frames = 0;
+            InputScript input = null;
+            Path record = null;
+            Path movie = null;
+            boolean every = false;
+            boolean lockstep = false;
+            boolean draw = true;
+            int warmup = 0;
+            int runAhead = 0;
+
+            List<String> positional = new ArrayList<>();
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--input" -> {
+                        if (++i == args.length) {
+                            throw new IllegalArgumentException("Missing file for --input");
+                        }
+                        input = InputScript.load(Path.of(args[i]));
+                    }
+                    case "--record" -> {
+                        if (++i == args.length) {
+                            throw new IllegalArgumentException("Missing file for --record");
+                        }
+                        record = Path.of(args[i]);
+                    }
+                    case "--movie" -> {
+                        if (++i == args.length) {
+                            throw new IllegalArgumentException("Missing file for --movie");
+                        }
+                        movie = Path.of(args[i]);
+                    }
+                    case "--every" -> every = true;
+                    case "--lockstep" -> lockstep = true;
+                    case "--no-draw" -> draw = false;
+                    case "--warmup" -> {
+                        if (++i == args.length) {
+                            throw new IllegalArgumentException("Missing frame count for --warmup");
+                        }
+                        warmup = Integer.parseInt(args[i]);
+                    }
+                    case "--run-ahead" -> {
+                        if (++i == args.length) {
+                            throw new IllegalArgumentException("Missing frame count for --run-ahead");
+                        }
+                        runAhead = Integer.parseInt(args[i]);
+                        if (runAhead < 0) {
+                            throw new IllegalArgumentException("Run-ahead must not be negative: " + runAhead);
+                        }
+                    }
+                    default -> {
+                        if (args[i].startsWith("--")) {
+                            throw new IllegalArgumentException("Unknown option: " + args[i]);
+                        }
+                        positional.add(args[i]);
+                    }
+                }
+            }
+
+            if (positional.isEmpty() || positional.size() > 2) {
+                throw new IllegalArgumentException("Expected a ROM and an optional frame count");
+            }
+            Path rom = Path.of(positional.get(0));
+            if (positional.size() == 2) {
+                frames = Integer.parseInt(positional.get(1));
+                if (frames <= 0) {
+                    throw new IllegalArgumentException("Frame count must be positive: " + frames);
+                }
+            }
+            if (movie != null && (input != null || record != null)) {
+                throw new IllegalArgumentException("A movie can't be replayed with --input or --record");
+            }
+            // The picture run-ahead leaves behind is not the one of the frame that was recorded
+            if (runAhead != 0 && (movie != null || record != null)) {
+                throw new IllegalArgumentException("Movies can't be recorded or replayed with --run-ahead");
+            }
+            return new Options(rom, frames, input, record, movie, every, lockstep, draw, warmup, runAhead);
+        }
+    }
+}
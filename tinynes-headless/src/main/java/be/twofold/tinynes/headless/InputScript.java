@@ -0,0 +1,82 @@
+package be.twofold.tinynes.headless;
+
+import be.twofold.tinynes.*;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Scripted controller input, one line per change: the frame it starts on, and the buttons held from then on.
+ * <pre>
+ * # Press start for a few frames, then hold right and A
+ * 120 START
+ * 125 -
+ * 300 RIGHT,A
+ * </pre>
+ */
+final class InputScript {
+    private static final ButtonKey[] Buttons = ButtonKey.values();
+
+    // Sorted by frame, so lookups don't allocate
+    private final int[] frames;
+    private final List<Set<ButtonKey>> buttons;
+
+    private InputScript(SortedMap<Integer, Set<ButtonKey>> changes) {
+        this.frames = changes.keySet().stream().mapToInt(Integer::intValue).toArray();
+        this.buttons = List.copyOf(changes.values());
+    }
+
+    static InputScript load(Path path) {
+        try {
+            return parse(Files.readAllLines(path));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    static InputScript parse(List<String> lines) {
+        SortedMap<Integer, Set<ButtonKey>> changes = new TreeMap<>();
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i).strip();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+
+            String[] parts = line.split("\\s+");
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("Line " + (i + 1) + ": expected a frame and buttons: " + line);
+            }
+            Set<ButtonKey> buttons = EnumSet.noneOf(ButtonKey.class);
+            if (!parts[1].equals("-")) {
+                for (String button : parts[1].split(",")) {
+                    buttons.add(ButtonKey.valueOf(button.toUpperCase(Locale.ROOT)));
+                }
+            }
+            changes.put(Integer.parseInt(parts[0]), buttons);
+        }
+        return new InputScript(changes);
+    }
+
+    /**
+     * The buttons held during the given frame.
+     */
+    Set<ButtonKey> buttons(int frame) {
+        int index = Arrays.binarySearch(frames, frame);
+        if (index < 0) {
+            index = -index - 2;
+        }
+        return index >= 0 ? buttons.get(index) : Set.of();
+    }
+
+    void apply(int frame, Controller controller) {
+        Set<ButtonKey> buttons = buttons(frame);
+        for (ButtonKey button : Buttons) {
+            if (buttons.contains(button)) {
+                controller.press(button);
+            } else {
+                controller.release(button);
+            }
+        }
+    }
+}
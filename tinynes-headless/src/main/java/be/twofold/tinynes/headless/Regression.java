@@ -0,0 +1,150 @@
+package be.twofold.tinynes.headless;
+
+import be.twofold.tinynes.*;
+
+import java.lang.management.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.function.*;
+
+/**
+ * Runs each test ROM to completion, and reports emulated cycles and frames per second and allocations per frame.
+ * Exits with status 1 when a ROM doesn't finish within its frame limit, or, given a baseline report,
+ * when throughput dropped by more than the threshold.
+ */
+public final class Regression {
+    private static final String Usage = String.join("\n",
+        "Usage: Regression [options]",
+        "  --roms <dir>         Directory with the test ROMs, default tinynes-core/src/test/resources",
+        "  --report <file>      Where to write the report, default regression-report.txt",
+        "  --baseline <file>    Report to compare throughput against",
+        "  --threshold <pct>    Allowed throughput drop against the baseline, default 10",
+        "  --time <seconds>     Minimum time to measure each ROM for, default 2",
+        "  --lockstep           Interleave the CPU and PPU every dot, instead of batch execution",
+        "  --no-draw            Skip drawing"
+    );
+
+    private static final List<Scenario> Scenarios = List.of(
+        // Runs the official opcode tests from the menu, which count up at $00D7 and reset it when done.
+        // Before they start, $0200 is still zero.
+        new Scenario("nestest.nes", 600, List.of("30 START", "35 -"), nes ->
+            nes.cpuBus().read(0x0200) != 0 && nes.cpuBus().read(0x00D7) == 0),
+        new Scenario("instr_timing.nes", 3600, List.of(), nes -> {
+            byte status = nes.cpuBus().read(0x6000);
+            return status != 0x00 && status != (byte) 0x80;
+        }),
+        new Scenario("cpu_timing_test.nes", 3600, List.of(), nes -> nes.cpu().getPc() == 0xEA5A)
+    );
+
+    private static final com.sun.management.ThreadMXBean Threads =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    public static void main(String[] args) {
+        Path roms = Path.of("tinynes-core/src/test/resources");
+        Path reportPath = Path.of("regression-report.txt");
+        Path baselinePath = null;
+        double threshold = 0.10;
+        double time = 2;
+        boolean lockstep = false;
+        boolean draw = true;
+
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--roms" -> roms = Path.of(value(args, ++i));
+                    case "--report" -> reportPath = Path.of(value(args, ++i));
+                    case "--baseline" -> baselinePath = Path.of(value(args, ++i));
+                    case "--threshold" -> threshold = Double.parseDouble(value(args, ++i)) / 100;
+                    case "--time" -> time = Double.parseDouble(value(args, ++i));
+                    case "--lockstep" -> lockstep = true;
+                    case "--no-draw" -> draw = false;
+                    default -> throw new IllegalArgumentException("Unknown option: " + args[i]);
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(Usage);
+            System.exit(2);
+            return;
+        }
+
+        Report report = new Report();
+        List<String> failures = new ArrayList<>();
+        for (Scenario scenario : Scenarios) {
+            Rom rom = Rom.load(roms.resolve(scenario.rom()));
+            if (!measure(scenario, rom, lockstep, draw, (long) (time * 1e9), report)) {
+                failures.add(scenario.rom() + ": not done after " + scenario.maxFrames() + " frames");
+            }
+        }
+        report.write(reportPath);
+        System.out.print(report);
+
+        if (baselinePath != null) {
+            failures.addAll(report.regressions(Report.read(baselinePath), threshold));
+        }
+        failures.forEach(System.err::println);
+        if (!failures.isEmpty()) {
+            System.exit(1);
+        }
+    }
+
+    private static String value(String[] args, int index) {
+        if (index == args.length) {
+            throw new IllegalArgumentException("Missing value for " + args[index - 1]);
+        }
+        return args[index];
+    }
+
+    /**
+     * Runs the scenario once to warm up, then as often as it takes to fill the time.
+     *
+     * @return If the scenario finished within its frame limit
+     */
+    private static boolean measure(Scenario scenario, Rom rom, boolean lockstep, boolean draw, long time, Report report) {
+        if (!scenario.run(rom, lockstep, draw).done()) {
+            return false;
+        }
+
+        Run total = new Run(0, 0, 0, 0, true);
+        int runs = 0;
+        while (total.nanos() < time) {
+            total = total.plus(scenario.run(rom, lockstep, draw));
+            runs++;
+        }
+
+        String name = scenario.rom();
+        report.put(name, Report.CyclesPerSecond, total.cycles() * 1e9 / total.nanos());
+        report.put(name, Report.FramesPerSecond, total.frames() * 1e9 / total.nanos());
+        report.put(name, Report.AllocatedBytesPerFrame, (double) total.allocated() / total.frames());
+        report.put(name, "framesPerRun", (double) total.frames() / runs);
+        report.put(name, "runs", runs);
+        return true;
+    }
+
+    private record Scenario(String rom, int maxFrames, List<String> input, Predicate<Nes> done) {
+        Run run(Rom rom, boolean lockstep, boolean draw) {
+            InputScript script = InputScript.parse(input);
+            Nes nes = new Nes(new Cartridge(rom));
+            nes.setBatch(!lockstep);
+            nes.ppu().setDrawing(draw);
+
+            // Only the frames count, not setting up
+            long allocated = Threads.getCurrentThreadAllocatedBytes();
+            long start = System.nanoTime();
+            int frames = 0;
+            while (frames < maxFrames && !done.test(nes)) {
+                script.apply(frames, nes.controller1());
+                nes.runFrame();
+                frames++;
+            }
+            long nanos = System.nanoTime() - start;
+            return new Run(nes.cpu().getTotalCycles(), frames, nanos, Threads.getCurrentThreadAllocatedBytes() - allocated, done.test(nes));
+        }
+    }
+
+    private record Run(long cycles, long frames, long nanos, long allocated, boolean done) {
+        Run plus(Run other) {
+            return new Run(cycles + other.cycles, frames + other.frames, nanos + other.nanos, allocated + other.allocated, done && other.done);
+        }
+    }
+}
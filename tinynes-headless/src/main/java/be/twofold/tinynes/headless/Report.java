@@ -0,0 +1,92 @@
+package be.twofold.tinynes.headless;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Metrics per ROM, stored as sorted {@code rom.metric=value} lines, so reports diff cleanly.
+ */
+final class Report {
+    static final String CyclesPerSecond = "cyclesPerSecond";
+    static final String FramesPerSecond = "framesPerSecond";
+    static final String AllocatedBytesPerFrame = "allocatedBytesPerFrame";
+
+    private static final List<String> Throughput = List.of(CyclesPerSecond, FramesPerSecond);
+
+    private final SortedMap<String, Double> metrics = new TreeMap<>();
+
+    void put(String rom, String metric, double value) {
+        metrics.put(rom + "." + metric, value);
+    }
+
+    OptionalDouble get(String rom, String metric) {
+        Double value = metrics.get(rom + "." + metric);
+        return value != null ? OptionalDouble.of(value) : OptionalDouble.empty();
+    }
+
+    /**
+     * Lists every throughput metric that dropped more than the threshold below the baseline.
+     * Metrics missing from either report are skipped.
+     *
+     * @param threshold The allowed drop, as a fraction
+     */
+    List<String> regressions(Report baseline, double threshold) {
+        List<String> regressions = new ArrayList<>();
+        for (Map.Entry<String, Double> entry : baseline.metrics.entrySet()) {
+            String key = entry.getKey();
+            if (!Throughput.contains(key.substring(key.lastIndexOf('.') + 1))) {
+                continue;
+            }
+
+            Double value = metrics.get(key);
+            double expected = entry.getValue();
+            if (value != null && value < expected * (1 - threshold)) {
+                regressions.add(String.format(Locale.ROOT, "%s dropped %.1f%%: %.1f, baseline %.1f",
+                    key, (1 - value / expected) * 100, value, expected));
+            }
+        }
+        return regressions;
+    }
+
+    void write(Path path) {
+        List<String> lines = new ArrayList<>();
+        metrics.forEach((key, value) -> lines.add(key + "=" + value));
+        try {
+            Files.write(path, lines);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    static Report read(Path path) {
+        try {
+            return parse(Files.readAllLines(path));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    static Report parse(List<String> lines) {
+        Report report = new Report();
+        for (String line : lines) {
+            line = line.strip();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            int index = line.indexOf('=');
+            if (index < 0) {
+                throw new IllegalArgumentException("Expected key=value: " + line);
+            }
+            report.metrics.put(line.substring(0, index), Double.parseDouble(line.substring(index + 1)));
+        }
+        return report;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        metrics.forEach((key, value) -> builder.append(key).append('=').append(value).append('\n'));
+        return builder.toString();
+    }
+}
@@ -0,0 +1,6 @@
+module be.twofold.tinynes.headless {
+
+    requires be.twofold.tinynes.core;
+    requires jdk.management;
+
+}
@@ -0,0 +1,35 @@
+package be.twofold.tinynes.headless;
+
+import be.twofold.tinynes.*;
+import org.junit.jupiter.api.*;
+
+import java.util.*;
+
+import static org.assertj.core.api.Assertions.*;
+
+class InputScriptTest {
+
+    @Test
+    void testButtonsHoldUntilNextChange() {
+        InputScript script = InputScript.parse(List.of(
+            "# Comment",
+            "",
+            "120 START",
+            "125 -",
+            "300 right,A"
+        ));
+
+        assertThat(script.buttons(0)).isEmpty();
+        assertThat(script.buttons(120)).containsExactly(ButtonKey.START);
+        assertThat(script.buttons(124)).containsExactly(ButtonKey.START);
+        assertThat(script.buttons(125)).isEmpty();
+        assertThat(script.buttons(1000)).containsExactlyInAnyOrder(ButtonKey.RIGHT, ButtonKey.A);
+    }
+
+    @Test
+    void testInvalidLinesAreRejected() {
+        assertThatIllegalArgumentException().isThrownBy(() -> InputScript.parse(List.of("120")));
+        assertThatIllegalArgumentException().isThrownBy(() -> InputScript.parse(List.of("120 TURBO")));
+    }
+
+}
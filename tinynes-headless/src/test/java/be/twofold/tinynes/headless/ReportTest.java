@@ -0,0 +1,41 @@
+package be.twofold.tinynes.headless;
+
+import org.junit.jupiter.api.*;
+
+import java.util.*;
+
+import static org.assertj.core.api.Assertions.*;
+
+class ReportTest {
+
+    @Test
+    void testRoundTrip() {
+        Report report = new Report();
+        report.put("nestest.nes", Report.CyclesPerSecond, 1.5e8);
+        report.put("nestest.nes", Report.AllocatedBytesPerFrame, 0);
+
+        Report parsed = Report.parse(List.of(report.toString().split("\n")));
+        assertThat(parsed.get("nestest.nes", Report.CyclesPerSecond)).hasValue(1.5e8);
+        assertThat(parsed.get("nestest.nes", Report.AllocatedBytesPerFrame)).hasValue(0);
+        assertThat(parsed.get("nestest.nes", Report.FramesPerSecond)).isEmpty();
+    }
+
+    @Test
+    void testOnlyThroughputDropsBeyondThresholdRegress() {
+        Report baseline = new Report();
+        baseline.put("a.nes", Report.CyclesPerSecond, 100);
+        baseline.put("a.nes", Report.FramesPerSecond, 100);
+        baseline.put("a.nes", Report.AllocatedBytesPerFrame, 100);
+        baseline.put("b.nes", Report.CyclesPerSecond, 100);
+
+        Report current = new Report();
+        current.put("a.nes", Report.CyclesPerSecond, 91);
+        current.put("a.nes", Report.FramesPerSecond, 89);
+        current.put("a.nes", Report.AllocatedBytesPerFrame, 1);
+
+        assertThat(current.regressions(baseline, 0.10))
+            .singleElement(as(STRING))
+            .startsWith("a.nes.framesPerSecond dropped 11.0%");
+    }
+
+}